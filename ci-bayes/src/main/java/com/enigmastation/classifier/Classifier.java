@@ -3,7 +3,10 @@ package com.enigmastation.classifier;
 import com.enigmastation.dao.CategoryDAO;
 import com.enigmastation.dao.FeatureDAO;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.Serializable;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -26,6 +29,12 @@ public interface Classifier extends Serializable {
 
     void train(Object item, String category);
 
+    void train(Reader item, String category) throws IOException;
+
+    void trainAll(Iterable<?> items, String category);
+
+    void trainAll(Map<?, String> items);
+
     CategoryDAO getCategoryDAO();
 
     void setCategoryDAO(CategoryDAO categoryDAO);
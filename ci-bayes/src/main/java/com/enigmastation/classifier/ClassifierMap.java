@@ -1,10 +1,22 @@
 package com.enigmastation.classifier;
 
+import com.enigmastation.collections.ConcurrentCounterMap;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * This class serves as the basic container for the classifiers. It's based currently on ConcurrentHashMap.
+ * This class serves as the basic container for the classifiers. It's based currently on ConcurrentCounterMap,
+ * which keeps the counts as primitive longs and updates them with compare-and-set, so concurrent training
+ * threads don't lose increments, and the total is kept as the counts change. It's still a
+ * ConcurrentMap of Integers, as it was when it extended ConcurrentHashMap; a count too large for an
+ * Integer reads as Integer.MAX_VALUE (or MIN_VALUE), though the total and further increments use the
+ * whole long.
  * Note that this class tends to change underlying implementations from commit to commit because various
  * implementations work better than others; for example, right now it's a hashmap, and it's entirely likely
  * that a treemap (or, perhaps, a trie) would be better. Further tests are required.
@@ -18,12 +30,23 @@ import java.util.concurrent.ConcurrentHashMap;
  * @version $Revision: 36 $
  */
 
-public class ClassifierMap extends ConcurrentHashMap<String, Integer> implements Map<String, Integer> {
+public class ClassifierMap extends AbstractMap<String, Integer> implements ConcurrentMap<String, Integer>, Serializable {
     /**
 	 * 
 	 */
 	private static final long serialVersionUID = -7636863402117170884L;
-	private long totalCount = 0;
+	private final ConcurrentCounterMap counts;
+
+    public ClassifierMap() {
+        counts = new ConcurrentCounterMap();
+    }
+
+    /**
+     * @param concurrency the number of threads expected to add categories at once
+     */
+    public ClassifierMap(int concurrency) {
+        counts = new ConcurrentCounterMap(concurrency);
+    }
 
     /**
      * This method increments the category's count. It primarily exists for the benefit of bulk loaders,
@@ -34,14 +57,7 @@ public class ClassifierMap extends ConcurrentHashMap<String, Integer> implements
      */
     @SuppressWarnings({"SameParameterValue"})
     public void incrementCategory(String category, int amount) {
-        Integer i = get(category);
-        if (i != null) {
-            put(category, i + amount);
-        } else {
-            put(category, amount);
-        }
-
-        totalCount += amount;
+        counts.add(category, amount);
     }
 
     /**
@@ -61,11 +77,163 @@ public class ClassifierMap extends ConcurrentHashMap<String, Integer> implements
      * @return The total number of training corpuses
      */
     public double getTotalCount() {
-        if (totalCount == 0) {
-            for (Integer i : values()) {
-                totalCount += i;
+        return counts.getTotal();
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long count = counts.get((String) key, Long.MAX_VALUE);
+        return count == Long.MAX_VALUE ? null : saturate(count);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && counts.containsKey((String) key);
+    }
+
+    @Override
+    public Integer put(String key, Integer value) {
+        long previous = counts.put(key, value, Long.MAX_VALUE);
+        return previous == Long.MAX_VALUE ? null : saturate(previous);
+    }
+
+    public Integer putIfAbsent(String key, Integer value) {
+        long previous = counts.putIfAbsent(key, value, Long.MAX_VALUE);
+        return previous == Long.MAX_VALUE ? null : saturate(previous);
+    }
+
+    public Integer replace(String key, Integer value) {
+        long previous = counts.replace(key, value, Long.MAX_VALUE);
+        return previous == Long.MAX_VALUE ? null : saturate(previous);
+    }
+
+    public boolean replace(String key, Integer oldValue, Integer newValue) {
+        if (oldValue == null || newValue == null) {
+            throw new NullPointerException();
+        }
+        return counts.compareAndSet(key, oldValue, newValue);
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long previous = counts.remove((String) key, Long.MAX_VALUE);
+        return previous == Long.MAX_VALUE ? null : saturate(previous);
+    }
+
+    public boolean remove(Object key, Object value) {
+        return key instanceof String && value instanceof Integer
+                && counts.compareAndRemove((String) key, (Integer) value);
+    }
+
+    @Override
+    public int size() {
+        return counts.size();
+    }
+
+    @Override
+    public void clear() {
+        counts.clear();
+    }
+
+    /**
+     * The entries are read as the set is iterated; like ConcurrentHashMap's, the iterator doesn't
+     * throw if the map changes while it runs.
+     */
+    @Override
+    public Set<Map.Entry<String, Integer>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Integer>>() {
+            @Override
+            public Iterator<Map.Entry<String, Integer>> iterator() {
+                final Iterator<String> keys = counts.keys().iterator();
+                return new Iterator<Map.Entry<String, Integer>>() {
+                    private String current;
+
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    public Map.Entry<String, Integer> next() {
+                        current = keys.next();
+                        return new Entry(current, saturate(counts.get(current, 0)));
+                    }
+
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+                        ClassifierMap.this.remove(current);
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return counts.size();
             }
+        };
+    }
+
+    /**
+     * @return the count as an Integer, or the nearest Integer if it doesn't fit
+     */
+    private static Integer saturate(long count) {
+        if (count > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        if (count < Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) count;
+    }
+
+    private final class Entry implements Map.Entry<String, Integer> {
+        private final String key;
+        private Integer value;
+
+        Entry(String key, Integer value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Integer getValue() {
+            return value;
+        }
+
+        public Integer setValue(Integer value) {
+            Integer previous = this.value;
+            this.value = value;
+            put(key, value);
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
         }
-        return totalCount;
     }
 }
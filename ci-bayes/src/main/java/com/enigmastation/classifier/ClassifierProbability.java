@@ -26,12 +26,27 @@ public final class ClassifierProbability implements Comparable<ClassifierProbabi
         this.score = score;
     }
 
+    /**
+     * Orders by score, highest first, and then by category, so that two probabilities only
+     * compare as equal when they're equal. A missing score or category sorts last.
+     */
     public int compareTo(ClassifierProbability o) {
-        if(getCategory().equals(o.getCategory())) {
-            return 0;
+        int result = compare(getScore(), o.getScore(), true);
+        if (result != 0) {
+            return result;
         }
-        
-        return (int)(Math.signum(o.getScore()-getScore()));
+        return compare(getCategory(), o.getCategory(), false);
+    }
+
+    private static <T extends Comparable<T>> int compare(T a, T b, boolean descending) {
+        if (a == null) {
+            return b == null ? 0 : 1;
+        }
+        if (b == null) {
+            return -1;
+        }
+        int result = (int) Math.signum(a.compareTo(b));
+        return descending ? -result : result;
     }
 
     @Override
@@ -41,8 +56,8 @@ public final class ClassifierProbability implements Comparable<ClassifierProbabi
 
         ClassifierProbability that = (ClassifierProbability) o;
 
-        return category != null && category.equals(that.category) || score != null && score.equals(that.score);
-
+        return (category != null ? category.equals(that.category) : that.category == null)
+                && (score != null ? score.equals(that.score) : that.score == null);
     }
 
     @Override
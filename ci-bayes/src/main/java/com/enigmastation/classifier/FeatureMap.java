@@ -12,12 +12,20 @@ public class FeatureMap extends ConcurrentHashMap<String, ClassifierMap> impleme
 	public ClassifierMap getFeature(String feature) {
         ClassifierMap cm = get(feature);
         if (cm == null) {
-            put(feature, cm = createEmptyClassifierMap());
+            ClassifierMap created = createEmptyClassifierMap();
+            cm = putIfAbsent(feature, created);
+            if (cm == null) {
+                cm = created;
+            }
         }
         return cm;
     }
 
+    /**
+     * Each feature gets its own map, and training threads rarely meet on one feature, so these
+     * have a single stripe.
+     */
     public ClassifierMap createEmptyClassifierMap() {
-        return new ClassifierMap();
+        return new ClassifierMap(1);
     }
 }
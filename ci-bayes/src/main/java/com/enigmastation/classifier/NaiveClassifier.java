@@ -1,5 +1,9 @@
 package com.enigmastation.classifier;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
 /**
  * This is the Naive Bayesian interface. Ideally, one would use the only the
  * getClassification() method to return a classification from the engine.
@@ -19,6 +23,8 @@ public interface NaiveClassifier extends Classifier {
 
     String getClassification(Object item, String defaultCat);
 
+    String getClassification(Reader item, String defaultCat) throws IOException;
+
     @SuppressWarnings({"SameParameterValue"})
     void setCategoryThreshold(String cat, double t);
 
@@ -26,6 +32,14 @@ public interface NaiveClassifier extends Classifier {
 
     ClassifierProbability[] getProbabilities(final Object item);
 
+    ClassifierProbability[] getLogProbabilities(final Object item);
+
+    ClassifierProbability[] getTopCategories(Object item, int k);
+
+    List<ClassifierProbability[]> getProbabilitiesAll(List<?> items);
+
+    List<String> classifyAll(List<?> items, String defaultCat);
+
     void normalizeProbabilities(ClassifierProbability[] probabilities);
 
     String getClassification(Object o);
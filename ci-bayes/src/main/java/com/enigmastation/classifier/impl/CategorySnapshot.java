@@ -0,0 +1,130 @@
+package com.enigmastation.classifier.impl;
+
+import com.enigmastation.dao.model.Category;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable view of every category a classifier knows about: the names, in sorted order,
+ * the number of items trained in each, and the total across all of them.
+ * <p/>
+ * ClassifierImpl loads one of these from the CategoryDAO the first time it needs it and swaps
+ * in a new one each time a category count changes, so the scoring paths never have to scan the
+ * categories in the store.
+ * <p/>
+ * A category with a count of zero is left out. The normalized JDBC DAOs add a category's row
+ * the first time a feature is filed under it, before any item is counted in it, and scoring
+ * such a category would divide its feature counts by zero.
+ */
+public final class CategorySnapshot {
+    private final List<String> names;
+    private final Set<String> nameSet;
+    private final long[] counts;
+    private final double total;
+
+    private CategorySnapshot(TreeMap<String, Long> categories) {
+        String[] n = new String[categories.size()];
+        counts = new long[n.length];
+        double sum = 0.0;
+        int index = 0;
+        for (Map.Entry<String, Long> entry : categories.entrySet()) {
+            n[index] = entry.getKey();
+            counts[index] = entry.getValue();
+            sum += counts[index];
+            index++;
+        }
+        names = Collections.unmodifiableList(Arrays.asList(n));
+        nameSet = Collections.unmodifiableSet(new TreeSet<String>(names));
+        total = sum;
+    }
+
+    /**
+     * Builds a snapshot from categories read from a CategoryDAO.
+     *
+     * @param categories the categories to include
+     * @return the snapshot
+     */
+    public static CategorySnapshot of(Collection<Category> categories) {
+        TreeMap<String, Long> map = new TreeMap<String, Long>();
+        for (Category c : categories) {
+            if (c.getCount() != null && c.getCount() != 0) {
+                map.put(c.getCategory(), c.getCount());
+            }
+        }
+        return new CategorySnapshot(map);
+    }
+
+    /**
+     * Returns a new snapshot that differs from this one only in the count of one category,
+     * which is added if it wasn't already present, or dropped if its count is now zero.
+     *
+     * @param category the category that changed
+     * @param count    the category's new count
+     * @return the new snapshot
+     */
+    public CategorySnapshot with(String category, long count) {
+        TreeMap<String, Long> map = new TreeMap<String, Long>();
+        for (int i = 0; i < counts.length; i++) {
+            map.put(names.get(i), counts[i]);
+        }
+        if (count == 0) {
+            map.remove(category);
+        } else {
+            map.put(category, count);
+        }
+        return new CategorySnapshot(map);
+    }
+
+    /**
+     * @return the category names, sorted
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the category names as a set
+     */
+    public Set<String> getNameSet() {
+        return nameSet;
+    }
+
+    /**
+     * @return the number of categories
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * @return a copy of the category counts, indexed the same way as getNames()
+     */
+    public long[] getCounts() {
+        long[] copy = new long[counts.length];
+        System.arraycopy(counts, 0, copy, 0, counts.length);
+        return copy;
+    }
+
+    /**
+     * @param category the category to look up
+     * @return the number of items trained in the category, or 0 if it's unknown
+     */
+    public long getCount(String category) {
+        int index = Collections.binarySearch(names, category);
+        return index < 0 ? 0 : counts[index];
+    }
+
+    /**
+     * @return the number of items trained in every category
+     */
+    public double getTotal() {
+        return total;
+    }
+}
@@ -5,15 +5,21 @@ import com.enigmastation.dao.CategoryDAO;
 import com.enigmastation.dao.FeatureDAO;
 import com.enigmastation.dao.model.Category;
 import com.enigmastation.dao.model.Feature;
+import com.enigmastation.extractors.StreamingWordLister;
 import com.enigmastation.extractors.WordLister;
 import com.enigmastation.extractors.impl.StemmingWordLister;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
-import java.util.Collections;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This is a simple Bayesian calculation class. It was ported from Python
@@ -36,6 +42,7 @@ public class ClassifierImpl implements Classifier {
 
     public void setCategoryDAO(CategoryDAO categoryDAO) {
         this.categoryDAO = categoryDAO;
+        categorySnapshot.set(null);
     }
 
     public FeatureDAO getFeatureDAO() {
@@ -52,6 +59,17 @@ public class ClassifierImpl implements Classifier {
     @Autowired
     protected WordLister wordLister = null;
 
+    /**
+     * Bumped every time training completes, so derived values can be cached until the model changes.
+     */
+    private final AtomicLong modelVersion = new AtomicLong();
+
+    /**
+     * The categories and their counts, loaded from the CategoryDAO on first use and replaced
+     * whenever incc() changes a count.
+     */
+    private final AtomicReference<CategorySnapshot> categorySnapshot = new AtomicReference<CategorySnapshot>();
+
     @PostConstruct
     public synchronized void init() {
         if (wordLister == null) {
@@ -69,20 +87,28 @@ public class ClassifierImpl implements Classifier {
      */
 
     void incf(String feature, String category) {
+        incf(feature, category, 1);
+    }
+
+    /**
+     * Increase the count of a feature/category pair by an arbitrary amount. This
+     * is a single increment() against the FeatureDAO regardless of the size of
+     * the delta, which is what lets the batch training path collapse repeated
+     * pairs before touching the store, and it doesn't lose counts when several
+     * threads train the same pair.
+     *
+     * @param feature  the feature (the 'word')
+     * @param category the category
+     * @param delta    the amount to add to the pair's count
+     */
+    void incf(String feature, String category, long delta) {
         if(featureDAO==null) {
             throw new Error("Configuration error: no featureDAO");
         }
         Feature template = new Feature();
         template.setFeature(feature);
         template.setCategory(category);
-        Feature f = featureDAO.read(template);
-        if (f == null) {
-            template.setCount(0L);
-            f = template;
-        } else {
-            f.setCount(f.getCount() + 1);
-        }
-        featureDAO.write(f);
+        featureDAO.increment(template, delta);
     }
 
     /**
@@ -92,16 +118,53 @@ public class ClassifierImpl implements Classifier {
      * @param category the category to increment
      */
     void incc(String category) {
+        incc(category, 1);
+    }
+
+    /**
+     * Increase the count of a category by an arbitrary amount.
+     *
+     * @param category the category to increment
+     * @param delta    the number of documents to add to the category
+     */
+    void incc(String category, long delta) {
+        // the snapshot is loaded before the store changes, so adding the delta to it can't count it twice
+        getCategorySnapshot();
         Category template = new Category();
         template.setCategory(category);
-        Category c = categoryDAO.read(template);
-        if (c == null) {
-            c = template;
-            c.setCount(1L);
-        } else {
-            c.setCount(c.getCount() + 1);
+        categoryDAO.increment(template, delta);
+        addToSnapshot(category, delta);
+    }
+
+    /**
+     * Adds a change already made in the CategoryDAO to the cached snapshot.
+     * The snapshot has to have been loaded before the change was made.
+     */
+    private void addToSnapshot(String category, long delta) {
+        CategorySnapshot snapshot;
+        do {
+            snapshot = categorySnapshot.get();
+            if (snapshot == null) {
+                // the DAO was replaced; the next reader loads a snapshot that already has this write
+                return;
+            }
+        } while (!categorySnapshot.compareAndSet(snapshot,
+                snapshot.with(category, snapshot.getCount(category) + delta)));
+    }
+
+    /**
+     * Returns the current category snapshot, loading it from the CategoryDAO if
+     * this classifier hasn't needed it yet.
+     *
+     * @return the categories and their counts
+     */
+    protected CategorySnapshot getCategorySnapshot() {
+        CategorySnapshot snapshot = categorySnapshot.get();
+        if (snapshot == null) {
+            categorySnapshot.compareAndSet(null, CategorySnapshot.of(categoryDAO.readMultiple(new Category())));
+            snapshot = categorySnapshot.get();
         }
-        categoryDAO.write(c);
+        return snapshot;
     }
 
     /**
@@ -129,13 +192,7 @@ public class ClassifierImpl implements Classifier {
      * @return the number of items in a category
      */
     double catcount(String category) {
-        Category template = new Category();
-        template.setCategory(category);
-        Category c = categoryDAO.read(template);
-        if (c == null) {
-            return 0.0;
-        }
-        return c.getCount();
+        return getCategorySnapshot().getCount(category);
     }
 
     /**
@@ -144,12 +201,7 @@ public class ClassifierImpl implements Classifier {
      * @return the total number of items
      */
     double totalcount() {
-        Category template = new Category();
-        double total = 0.0;
-        for (Category c : categoryDAO.readMultiple(template)) {
-            total += c.getCount();
-        }
-        return total;
+        return getCategorySnapshot().getTotal();
     }
 
     /*double totalcount(String feature) {
@@ -172,27 +224,175 @@ public class ClassifierImpl implements Classifier {
         return total;
     }
 
+    /**
+     * Reads every count needed to score a set of features against every category:
+     * the categories come from the snapshot, and the feature counts from one bulk read.
+     *
+     * @param features the features of the document being scored
+     * @return the counts, with categories in the same order as getCategories()
+     */
+    protected DocumentCounts readDocumentCounts(Set<String> features) {
+        long version = getModelVersion();
+        CategorySnapshot snapshot = getCategorySnapshot();
+        List<String> categories = snapshot.getNames();
+        return new DocumentCounts(version, features, categories, snapshot.getCounts(),
+                featureDAO.readCounts(features, categories));
+    }
+
     /**
      * Direct port from Segaran's book, including method name.
      *
      * @return the list of all getCategories
      */
     public final Set<String> getCategories() {
-        Category template = new Category();
-        Set<String> results = new TreeSet<String>();
-        for (Category c : categoryDAO.readMultiple(template)) {
-            results.add(c.getCategory());
-        }
-        return Collections.unmodifiableSet(results);
+        return getCategorySnapshot().getNameSet();
     }
 
+    /**
+     * Trains an item.
+     *
+     * @param item     the item to train; needs a meaningful toString()
+     * @param category the category the item belongs to
+     */
     public void train(Object item, String category) {
-        Set<String> features = wordLister.getUniqueWords(item);
+        train(wordLister.getUniqueWords(item), category);
+    }
 
+    /**
+     * Trains an item as it's read. With a StreamingWordLister the item is tokenized a buffer at
+     * a time and never held in memory whole.
+     *
+     * @param item     the item to train
+     * @param category the category the item belongs to
+     * @throws IOException if the item can't be read
+     */
+    public void train(Reader item, String category) throws IOException {
+        train(getUniqueWords(item), category);
+    }
+
+    /**
+     * Tokenizes a Reader, streaming it if the word lister can. Other word listers get the
+     * whole document, read into a StringBuilder.
+     *
+     * @param item the item to tokenize
+     * @return the item's unique words
+     * @throws IOException if the item can't be read
+     */
+    protected Set<String> getUniqueWords(Reader item) throws IOException {
+        if (wordLister instanceof StreamingWordLister) {
+            return ((StreamingWordLister) wordLister).getUniqueWords(item);
+        }
+        StringBuilder document = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = item.read(buffer)) != -1) {
+            document.append(buffer, 0, read);
+        }
+        return wordLister.getUniqueWords(document);
+    }
+
+    private void train(Set<String> features, String category) {
         for (String f : features) {
             incf(f, category);
         }
         incc(category);
+        modelVersion.incrementAndGet();
+    }
+
+    /**
+     * Trains every item in the iterable under a single category. The items are
+     * tokenized first and their features collapsed into one table of deltas, so
+     * each distinct feature is incremented once per batch instead of once per
+     * document, and the deltas go to the DAOs' incrementAll() in one call.
+     *
+     * @param items    the items to train; each needs a meaningful toString()
+     * @param category the category for every item
+     */
+    public void trainAll(Iterable<?> items, String category) {
+        Map<String, Map<String, long[]>> featureDeltas = new HashMap<String, Map<String, long[]>>();
+        Map<String, long[]> categoryDeltas = new HashMap<String, long[]>();
+        for (Object item : items) {
+            addDeltas(featureDeltas, categoryDeltas, item, category);
+        }
+        flushDeltas(featureDeltas, categoryDeltas);
+    }
+
+    /**
+     * Trains a batch of items, each with its own category. See
+     * {@link #trainAll(Iterable, String)}.
+     *
+     * @param items a map of items to the category each should be trained in
+     */
+    public void trainAll(Map<?, String> items) {
+        Map<String, Map<String, long[]>> featureDeltas = new HashMap<String, Map<String, long[]>>();
+        Map<String, long[]> categoryDeltas = new HashMap<String, long[]>();
+        for (Map.Entry<?, String> entry : items.entrySet()) {
+            addDeltas(featureDeltas, categoryDeltas, entry.getKey(), entry.getValue());
+        }
+        flushDeltas(featureDeltas, categoryDeltas);
+    }
+
+    private void addDeltas(Map<String, Map<String, long[]>> featureDeltas, Map<String, long[]> categoryDeltas,
+                           Object item, String category) {
+        Map<String, long[]> deltas = featureDeltas.get(category);
+        if (deltas == null) {
+            deltas = new HashMap<String, long[]>();
+            featureDeltas.put(category, deltas);
+        }
+        for (String f : wordLister.getUniqueWords(item)) {
+            long[] delta = deltas.get(f);
+            if (delta == null) {
+                deltas.put(f, delta = new long[1]);
+            }
+            delta[0]++;
+        }
+        long[] delta = categoryDeltas.get(category);
+        if (delta == null) {
+            categoryDeltas.put(category, delta = new long[1]);
+        }
+        delta[0]++;
+    }
+
+    private void flushDeltas(Map<String, Map<String, long[]>> featureDeltas, Map<String, long[]> categoryDeltas) {
+        if (featureDAO == null) {
+            throw new Error("Configuration error: no featureDAO");
+        }
+        List<Feature> features = new ArrayList<Feature>();
+        for (Map.Entry<String, Map<String, long[]>> category : featureDeltas.entrySet()) {
+            for (Map.Entry<String, long[]> feature : category.getValue().entrySet()) {
+                Feature delta = new Feature();
+                delta.setFeature(feature.getKey());
+                delta.setCategory(category.getKey());
+                delta.setCount(feature.getValue()[0]);
+                features.add(delta);
+            }
+        }
+        featureDAO.incrementAll(features);
+
+        getCategorySnapshot();
+        List<Category> categories = new ArrayList<Category>(categoryDeltas.size());
+        for (Map.Entry<String, long[]> category : categoryDeltas.entrySet()) {
+            Category delta = new Category();
+            delta.setCategory(category.getKey());
+            delta.setCount(category.getValue()[0]);
+            categories.add(delta);
+        }
+        categoryDAO.incrementAll(categories);
+        for (Category delta : categories) {
+            addToSnapshot(delta.getCategory(), delta.getCount());
+        }
+        modelVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns the version of the trained model. It changes whenever a train() or
+     * trainAll() call completes, so a value computed from the model can be reused
+     * for as long as the version it was computed under is current.
+     *
+     * @return the current model version
+     */
+    protected long getModelVersion() {
+        return modelVersion.get();
     }
 
     /**
@@ -215,6 +415,19 @@ public class ClassifierImpl implements Classifier {
         }
     }
 
+    /**
+     * The same calculation as {@link #fprob(String, String)}, against counts that
+     * have already been read.
+     *
+     * @param counts   the counts for the document being scored
+     * @param feature  the index of the feature to consider
+     * @param category the index of the category
+     * @return the feature probability for the class
+     */
+    protected double fprob(DocumentCounts counts, int feature, int category) {
+        return counts.getFeatureCount(feature, category) / counts.getCategoryCount(category);
+    }
+
     /**
      * @param feature  the feature to consider
      * @param category the category
@@ -243,6 +456,35 @@ public class ClassifierImpl implements Classifier {
                 / (WEIGHT + totals);
     }
 
+    /**
+     * The same calculation as {@link #getWeightedProbability(String, String)},
+     * against counts that have already been read.
+     *
+     * @param counts   the counts for the document being scored
+     * @param feature  the index of the feature to consider
+     * @param category the index of the category
+     * @return the weighted probability
+     */
+    protected double getWeightedProbability(DocumentCounts counts, int feature, int category) {
+        double basicprob = fprob(counts, feature, category);
+        double totals = counts.getFeatureTotal(feature);
+        return ((WEIGHT * ASSUMED_PROBABILITY) + (totals * basicprob))
+                / (WEIGHT + totals);
+    }
+
+    /**
+     * The largest weighted probability a feature can have in any category, which it
+     * reaches in a category where it appears in every item.
+     *
+     * @param counts  the counts for the document being scored
+     * @param feature the index of the feature to consider
+     * @return the upper bound of the feature's weighted probability
+     */
+    protected double getWeightedProbabilityBound(DocumentCounts counts, int feature) {
+        double totals = counts.getFeatureTotal(feature);
+        return ((WEIGHT * ASSUMED_PROBABILITY) + totals) / (WEIGHT + totals);
+    }
+
     public void setWordLister(WordLister wordLister) {
         this.wordLister=wordLister;
     }
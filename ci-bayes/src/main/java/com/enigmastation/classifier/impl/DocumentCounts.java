@@ -0,0 +1,134 @@
+package com.enigmastation.classifier.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This holds every count needed to score one document: how often each of the document's features
+ * has been seen in each category, how many items each category has been trained with, and the
+ * totals derived from those. It's built from one FeatureDAO.readCounts() call and one read of the
+ * categories, so scoring a document against every category doesn't go back to the store per feature.
+ * <p/>
+ * Features and categories are addressed by index; the category order is the order of the list
+ * the counts were built from. The counts also carry the model version they were read under, so
+ * anything derived from them can be cached against that version.
+ */
+public class DocumentCounts {
+    static final long[] NO_COUNTS = new long[0];
+
+    private final long version;
+    private final String[] features;
+    private final String[] categories;
+    private final long[] categoryCounts;
+    private final Map<String, long[]> counts;
+    private final long[][] featureCounts;
+    private final double[] featureTotals;
+    private final double totalCount;
+
+    public DocumentCounts(long version, Set<String> features, List<String> categories, long[] categoryCounts,
+                          Map<String, long[]> counts) {
+        this.version = version;
+        this.features = features.toArray(new String[features.size()]);
+        this.categories = categories.toArray(new String[categories.size()]);
+        this.categoryCounts = categoryCounts;
+        this.counts = counts;
+        this.featureCounts = new long[this.features.length][];
+        this.featureTotals = new double[this.features.length];
+        for (int f = 0; f < this.features.length; f++) {
+            long[] row = counts.get(this.features[f]);
+            featureCounts[f] = row == null ? NO_COUNTS : row;
+            double total = 0.0;
+            for (long count : featureCounts[f]) {
+                total += count;
+            }
+            featureTotals[f] = total;
+        }
+        double total = 0.0;
+        for (long count : categoryCounts) {
+            total += count;
+        }
+        this.totalCount = total;
+    }
+
+    /**
+     * Narrows these counts to some of their features, without going back to the store.
+     * This lets a batch of documents be scored from one read of the union of their features.
+     *
+     * @param subset the features to keep; features these counts don't cover count as unseen
+     * @return the counts for just those features
+     */
+    public DocumentCounts subset(Set<String> subset) {
+        return new DocumentCounts(version, subset, Arrays.asList(categories), categoryCounts, counts);
+    }
+
+    /**
+     * @return the model version that was current when the counts were read
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getFeatureSize() {
+        return features.length;
+    }
+
+    public int getCategorySize() {
+        return categories.length;
+    }
+
+    public String getFeature(int feature) {
+        return features[feature];
+    }
+
+    public String getCategory(int category) {
+        return categories[category];
+    }
+
+    /**
+     * @param category the category name
+     * @return the index of the category, or -1 if the counts don't cover it
+     */
+    public int indexOfCategory(String category) {
+        for (int i = 0; i < categories.length; i++) {
+            if (categories[i].equals(category)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param feature  the feature index
+     * @param category the category index
+     * @return the number of times the feature has appeared in the category
+     */
+    public double getFeatureCount(int feature, int category) {
+        long[] row = featureCounts[feature];
+        return row.length == 0 ? 0.0 : row[category];
+    }
+
+    /**
+     * @param feature the feature index
+     * @return the number of times the feature has appeared in any category
+     */
+    public double getFeatureTotal(int feature) {
+        return featureTotals[feature];
+    }
+
+    /**
+     * @param category the category index
+     * @return the number of items trained in the category
+     */
+    public double getCategoryCount(int category) {
+        return categoryCounts[category];
+    }
+
+    /**
+     * @return the number of items trained in every category
+     */
+    public double getTotalCount() {
+        return totalCount;
+    }
+}
@@ -1,11 +1,15 @@
 package com.enigmastation.classifier.impl;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
 
-import com.enigmastation.classifier.ClassifierProbability;
+import com.enigmastation.classifier.ClassifierException;
 import com.enigmastation.classifier.FisherClassifier;
 import com.google.common.collect.MapMaker;
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.special.Gamma;
 
 public class FisherClassifierImpl extends NaiveClassifierImpl implements FisherClassifier {
     /**
@@ -25,38 +29,167 @@ public class FisherClassifierImpl extends NaiveClassifierImpl implements FisherC
         return 0.0;
     }
 
+    /**
+     * The upper bound on the number of features whose probability vectors are cached.
+     */
+    private int probabilityCacheSize = 10000;
+    private transient Map<String, FeatureProbabilities> probabilityCache = new MapMaker().makeMap();
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        probabilityCache = new MapMaker().makeMap();
+    }
+
+    public int getProbabilityCacheSize() {
+        return probabilityCacheSize;
+    }
+
+    public void setProbabilityCacheSize(int probabilityCacheSize) {
+        this.probabilityCacheSize = probabilityCacheSize;
+    }
+
+    /**
+     * A feature's fprob for every category at once. Fisher's fprob for one category is
+     * normalized against the feature's fprob in every other category, so computing the whole
+     * vector at once costs the same as computing a single entry of it.
+     */
+    static final class FeatureProbabilities {
+        final long version;
+        final String[] categories;
+        final double[] probabilities;
+
+        FeatureProbabilities(long version, String[] categories, double[] probabilities) {
+            this.version = version;
+            this.categories = categories;
+            this.probabilities = probabilities;
+        }
+
+        double get(int index, String category) {
+            if (index < categories.length && categories[index].equals(category)) {
+                return probabilities[index];
+            }
+            for (int i = 0; i < categories.length; i++) {
+                if (categories[i].equals(category)) {
+                    return probabilities[i];
+                }
+            }
+            return 0.0;
+        }
+    }
+
     @Override
     protected double fprob(String feature, String cat) {
-        double clf = super.fprob(feature, cat);
-        if (clf == 0.0) {
-            return 0.0;
+        FeatureProbabilities p = probabilityCache.get(feature);
+        if (p == null || p.version != getModelVersion()) {
+            p = getFeatureProbabilities(readDocumentCounts(Collections.singleton(feature)), 0);
         }
-        double freqsum = 0.0;
+        return p.get(0, cat);
+    }
 
-        for (String c : getCategories()) {
-            double d = super.fprob(feature, c);
-            freqsum = freqsum + d;
+    @Override
+    protected double fprob(DocumentCounts counts, int feature, int category) {
+        FeatureProbabilities p = probabilityCache.get(counts.getFeature(feature));
+        if (p == null || p.version != counts.getVersion()) {
+            p = getFeatureProbabilities(counts, feature);
         }
+        return p.get(category, counts.getCategory(category));
+    }
 
-        return clf / freqsum;
+    private FeatureProbabilities getFeatureProbabilities(DocumentCounts counts, int feature) {
+        String[] categories = new String[counts.getCategorySize()];
+        double[] probabilities = new double[categories.length];
+        double freqsum = 0.0;
+        for (int c = 0; c < categories.length; c++) {
+            categories[c] = counts.getCategory(c);
+            probabilities[c] = super.fprob(counts, feature, c);
+            freqsum = freqsum + probabilities[c];
+        }
+        if (freqsum > 0.0) {
+            for (int c = 0; c < categories.length; c++) {
+                probabilities[c] = probabilities[c] / freqsum;
+            }
+        }
+        FeatureProbabilities p = new FeatureProbabilities(counts.getVersion(), categories, probabilities);
+        if (probabilityCache.size() >= probabilityCacheSize) {
+            probabilityCache.clear();
+        }
+        probabilityCache.put(counts.getFeature(feature), p);
+        return p;
     }
 
     double fisherprob(Object item, String cat) {
+        DocumentCounts counts = readDocumentCounts(wordLister.getUniqueWords(item));
+        int index = counts.indexOfCategory(cat);
+        if (index == -1) {
+            return 0.0;
+        }
+        return fisherprob(counts, index);
+    }
+
+    double fisherprob(DocumentCounts counts, int category) {
+        if (isLogScoring()) {
+            return logFisherprob(counts, category);
+        }
         double p = 1.0;
-        Set<String> features = wordLister.getUniqueWords(item);
-        for (String f : features) {
-            p *= getWeightedProbability(f, cat);
+        for (int f = 0; f < counts.getFeatureSize(); f++) {
+            p *= getWeightedProbability(counts, f, category);
         }
         double fscore = -2 * Math.log(p);
-        return invchi2(fscore, features.size() * 2);
+        return invchi2(fscore, counts.getFeatureSize() * 2);
+    }
+
+    /**
+     * Fisher's method without the product: the chi-square statistic is built from a sum of
+     * logs, so it doesn't overflow when the product would underflow, and its survival function
+     * comes from the regularized gamma function instead of a series as long as the document.
+     */
+    double logFisherprob(DocumentCounts counts, int category) {
+        int features = counts.getFeatureSize();
+        if (features == 0) {
+            return 1.0;
+        }
+        double chi = 0.0;
+        for (int f = 0; f < features; f++) {
+            chi -= 2.0 * Math.log(getWeightedProbability(counts, f, category));
+        }
+        try {
+            // the chi-square survival function for 2n degrees of freedom is Q(n, chi/2)
+            return Math.min(Gamma.regularizedGammaQ(features, chi / 2.0), 1.0);
+        } catch (MathException e) {
+            throw new ClassifierException("Unable to compute Fisher probability", e);
+        }
     }
 
     public double getFisherProbability(Object item, String category) {
         return fisherprob(item, category);
     }
 
-    public double getProbabilityForCategory(Object item, String category) {
-        return fisherprob(item, category);
+    @Override
+    protected double getProbabilityForCategory(DocumentCounts counts, int category) {
+        return fisherprob(counts, category);
+    }
+
+    /**
+     * Fisher scores are compared against per-category minimums, so they're never normalized
+     * against each other the way the naive scores are in log scoring mode.
+     */
+    @Override
+    protected double[] getScores(DocumentCounts counts) {
+        double[] scores = new double[counts.getCategorySize()];
+        for (int index = 0; index < scores.length; index++) {
+            scores[index] = fisherprob(counts, index);
+        }
+        return scores;
+    }
+
+    @Override
+    protected double[] getClassificationScores(DocumentCounts counts) {
+        return getScores(counts);
+    }
+
+    @Override
+    protected double getLogProbabilityForCategory(DocumentCounts counts, int category) {
+        return Math.log(fisherprob(counts, category));
     }
 
     private double invchi2(double chi, int df) {
@@ -85,17 +218,19 @@ public class FisherClassifierImpl extends NaiveClassifierImpl implements FisherC
     }
     */
 
+    /**
+     * Returns the best category whose score clears its minimum. That's a single pass over
+     * the scores; nothing needs to be sorted.
+     */
     @Override
-    public String getClassification(Object item, String defaultCat) {
-        if (getCategories().size() == 0) {
-            return defaultCat;
-        }
-        ClassifierProbability[] probs = getProbabilities(item);
-        for (ClassifierProbability p : probs) {
-            if (p.getScore() > getMinimum(p.getCategory())) {
-                return p.getCategory();
+    protected String getClassification(DocumentCounts counts, double[] scores, String defaultCat) {
+        int best = -1;
+        for (int index = 0; index < scores.length; index++) {
+            if (scores[index] > getMinimum(counts.getCategory(index))
+                    && (best == -1 || scores[index] > scores[best])) {
+                best = index;
             }
         }
-        return defaultCat;
+        return best == -1 ? defaultCat : counts.getCategory(best);
     }
 }
@@ -7,9 +7,22 @@ import com.enigmastation.classifier.NaiveClassifier;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is a naive bayesian classifier.
@@ -27,6 +40,68 @@ public class NaiveClassifierImpl extends ClassifierImpl implements NaiveClassifi
 	private static final long serialVersionUID = -3694360766223901139L;
 	private final transient Map<String, Double> thresholds = new MapMaker().makeMap();
 
+    /**
+     * When set, documents are scored by summing log probabilities instead of multiplying
+     * probabilities, which keeps long documents from underflowing to 0.0 in every category.
+     */
+    private boolean logScoring = false;
+
+    /**
+     * When set, classification scores categories in log space and stops scoring any category
+     * that can no longer win, or come close enough to the winner to matter to the thresholds.
+     * The winner and the threshold decision are the same as without it.
+     */
+    private boolean boundedScoring = false;
+
+    public boolean isLogScoring() {
+        return logScoring;
+    }
+
+    public void setLogScoring(boolean logScoring) {
+        this.logScoring = logScoring;
+    }
+
+    public boolean isBoundedScoring() {
+        return boundedScoring;
+    }
+
+    public void setBoundedScoring(boolean boundedScoring) {
+        this.boundedScoring = boundedScoring;
+    }
+
+    /**
+     * The pool the batch methods tokenize and score on. If none is set, a pool shared by every
+     * classifier, with one thread per processor, is used.
+     */
+    private transient ExecutorService executor;
+
+    public ExecutorService getExecutor() {
+        if (executor == null) {
+            return DefaultExecutor.INSTANCE;
+        }
+        return executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Holds the shared pool, so it's only created if some classifier actually runs a batch.
+     */
+    private static final class DefaultExecutor {
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "classifier-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
     public void setCategoryThreshold(String cat, double t) {
         thresholds.put(cat, t);
     }
@@ -46,27 +121,260 @@ public class NaiveClassifierImpl extends ClassifierImpl implements NaiveClassifi
     */
 
     public ClassifierProbability[] getProbabilities(final Object item) {
-        ClassifierProbability[] probabilities = new ClassifierProbability[getCategories().size()];
-        Set<String> features = wordLister.getUniqueWords(item);
+        DocumentCounts counts = readDocumentCounts(getFeatures(item));
+        return toClassifierProbabilities(counts, getScores(counts));
+    }
+
+    /**
+     * Returns the log of each category's probability for the item, best first. The scores
+     * can be compared with one another even when the probabilities themselves are too small
+     * to represent as doubles.
+     *
+     * @param item the item to be classified; needs to have meaningful toString()
+     * @return the log probabilities, sorted with the most likely category first
+     */
+    public ClassifierProbability[] getLogProbabilities(final Object item) {
+        DocumentCounts counts = readDocumentCounts(getFeatures(item));
+        double[] scores = new double[counts.getCategorySize()];
+        for (int index = 0; index < scores.length; index++) {
+            scores[index] = getLogProbabilityForCategory(counts, index);
+        }
+        return toClassifierProbabilities(counts, scores);
+    }
+
+    /**
+     * Scores a batch of items. The items are tokenized in parallel, every item is scored
+     * against the same category snapshot from one bulk read of all their features, and the
+     * scoring is parallel again.
+     *
+     * @param items the items to be classified; each needs to have meaningful toString()
+     * @return each item's probabilities, sorted as getProbabilities() sorts them, in input order
+     */
+    public List<ClassifierProbability[]> getProbabilitiesAll(List<?> items) {
+        return scoreAll(items, new DocumentScorer<ClassifierProbability[]>() {
+            public ClassifierProbability[] score(DocumentCounts counts) {
+                return toClassifierProbabilities(counts, getScores(counts));
+            }
+        });
+    }
+
+    /**
+     * Classifies a batch of items, as getClassification(Object, String) does for one.
+     *
+     * @param items      the items to be classified; each needs to have meaningful toString()
+     * @param defaultCat the category for items that can't be classified
+     * @return each item's category, in input order
+     */
+    public List<String> classifyAll(List<?> items, final String defaultCat) {
+        return scoreAll(items, new DocumentScorer<String>() {
+            public String score(DocumentCounts counts) {
+                return getClassification(counts, getClassificationScores(counts), defaultCat);
+            }
+        });
+    }
+
+    /**
+     * Turns one document's counts into a batch result.
+     */
+    private interface DocumentScorer<T> {
+        T score(DocumentCounts counts);
+    }
+
+    private <T> List<T> scoreAll(List<?> items, final DocumentScorer<T> scorer) {
+        List<Callable<Set<String>>> tokenizers = new ArrayList<Callable<Set<String>>>(items.size());
+        for (final Object item : items) {
+            tokenizers.add(new Callable<Set<String>>() {
+                public Set<String> call() {
+                    return wordLister.getUniqueWords(item);
+                }
+            });
+        }
+        List<Set<String>> features = invokeAll(tokenizers);
+
+        Set<String> union = new HashSet<String>();
+        for (Set<String> f : features) {
+            if (classificationListeners.size() > 0) {
+                for (ClassificationListener listener : classificationListeners) {
+                    listener.onClassification(this, f);
+                }
+            }
+            union.addAll(f);
+        }
+        final DocumentCounts counts = readDocumentCounts(union);
+
+        List<Callable<T>> scorers = new ArrayList<Callable<T>>(features.size());
+        for (final Set<String> f : features) {
+            scorers.add(new Callable<T>() {
+                public T call() {
+                    return scorer.score(counts.subset(f));
+                }
+            });
+        }
+        return invokeAll(scorers);
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : getExecutor().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClassifierException("Interrupted during batch classification", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new ClassifierException("Batch classification failed", e.getCause());
+        }
+        return results;
+    }
+
+    protected Set<String> getFeatures(Object item) {
+        return notifyListeners(wordLister.getUniqueWords(item));
+    }
+
+    private Set<String> notifyListeners(Set<String> features) {
         if (classificationListeners.size() > 0) {
             for (ClassificationListener listener : classificationListeners) {
                 listener.onClassification(this, features);
             }
         }
+        return features;
+    }
 
-        int index = 0;
-        for (String cat : getCategories()) {
+    /**
+     * Scores the document against every category. In log scoring mode the log probabilities
+     * are converted back at the end, relative to the best of them, and normalized so they
+     * sum to 1.0; the ratios between categories are the same as in the plain mode.
+     *
+     * @param counts the document's counts
+     * @return the score for each category, indexed like the counts' categories
+     */
+    protected double[] getScores(DocumentCounts counts) {
+        double[] scores = new double[counts.getCategorySize()];
+        if (!logScoring) {
+            for (int index = 0; index < scores.length; index++) {
+                scores[index] = getProbabilityForCategory(counts, index);
+            }
+            return scores;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (int index = 0; index < scores.length; index++) {
+            scores[index] = getLogProbabilityForCategory(counts, index);
+            max = Math.max(max, scores[index]);
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            Arrays.fill(scores, 0.0);
+            return scores;
+        }
+        double sum = 0.0;
+        for (int index = 0; index < scores.length; index++) {
+            scores[index] = Math.exp(scores[index] - max);
+            sum += scores[index];
+        }
+        for (int index = 0; index < scores.length; index++) {
+            scores[index] /= sum;
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the scores classification decides on: the same as getScores(), unless bounded
+     * scoring is set.
+     *
+     * @param counts the document's counts
+     * @return the score for each category, indexed like the counts' categories
+     */
+    protected double[] getClassificationScores(DocumentCounts counts) {
+        return boundedScoring ? getBoundedScores(counts) : getScores(counts);
+    }
+
+    /**
+     * Scores the document in log space, branch-and-bound. Features are added in decreasing
+     * order of how often they've been seen, since those separate the categories most, and
+     * categories are scored in decreasing order of prior so a strong best score turns up early.
+     * While a category is being scored, its partial score plus the largest log weighted
+     * probability each of its remaining features could have bounds its final score; once that
+     * bound, allowing for the largest threshold, can't beat the best complete score, the
+     * category is dropped.
+     * <p/>
+     * The scores come back relative to the best, which is 1.0, so thresholds apply to them as
+     * they do to getScores(). Dropped categories score 0.0; none of them could have changed
+     * the classification.
+     *
+     * @param counts the document's counts
+     * @return the score for each category, indexed like the counts' categories
+     */
+    protected double[] getBoundedScores(final DocumentCounts counts) {
+        int features = counts.getFeatureSize();
+        Integer[] featureOrder = new Integer[features];
+        for (int f = 0; f < features; f++) {
+            featureOrder[f] = f;
+        }
+        Arrays.sort(featureOrder, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(counts.getFeatureTotal(b), counts.getFeatureTotal(a));
+            }
+        });
+        // remaining[i] bounds what features i and later can still add to a category's score
+        double[] remaining = new double[features + 1];
+        for (int i = features - 1; i >= 0; i--) {
+            remaining[i] = remaining[i + 1] + Math.log(getWeightedProbabilityBound(counts, featureOrder[i]));
+        }
+
+        int categories = counts.getCategorySize();
+        Integer[] categoryOrder = new Integer[categories];
+        double threshold = 1.0;
+        for (int c = 0; c < categories; c++) {
+            categoryOrder[c] = c;
+            threshold = Math.max(threshold, getCategoryThreshold(counts.getCategory(c)));
+        }
+        Arrays.sort(categoryOrder, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(counts.getCategoryCount(b), counts.getCategoryCount(a));
+            }
+        });
+        double margin = Math.log(threshold);
+
+        double[] scores = new double[categories];
+        double best = Double.NEGATIVE_INFINITY;
+        for (int category : categoryOrder) {
+            double score = Math.log(counts.getCategoryCount(category) / counts.getTotalCount());
+            int i = 0;
+            while (i < features && score + remaining[i] + margin > best) {
+                score += Math.log(getWeightedProbability(counts, featureOrder[i], category));
+                i++;
+            }
+            if (i < features) {
+                score = Double.NEGATIVE_INFINITY;
+            }
+            scores[category] = score;
+            best = Math.max(best, score);
+        }
+        for (int c = 0; c < categories; c++) {
+            scores[c] = best == Double.NEGATIVE_INFINITY ? 0.0 : Math.exp(scores[c] - best);
+        }
+        return scores;
+    }
+
+    private ClassifierProbability[] toClassifierProbabilities(DocumentCounts counts, double[] scores) {
+        ClassifierProbability[] probabilities = new ClassifierProbability[scores.length];
+        for (int index = 0; index < probabilities.length; index++) {
             probabilities[index] = new ClassifierProbability();
-            probabilities[index].setCategory(cat);
-            probabilities[index].setScore(getProbabilityForCategory(features, cat));
-            index++;
+            probabilities[index].setCategory(counts.getCategory(index));
+            probabilities[index].setScore(scores[index]);
         }
         Arrays.sort(probabilities);
         return probabilities;
     }
 
     public void normalizeProbabilities(ClassifierProbability[] probabilities) {
-        if (probabilities.length > 0) {
+        if (probabilities.length > 0 && probabilities[0].getScore() > 0.0) {
             double multiplier = 1.0 / probabilities[0].getScore();
             for (ClassifierProbability prob : probabilities) {
                 prob.setScore(prob.getScore() * multiplier);
@@ -74,23 +382,145 @@ public class NaiveClassifierImpl extends ClassifierImpl implements NaiveClassifi
         }
     }
 
+    /**
+     * Returns the k most likely categories for an item, best first. Only the k best
+     * scores are selected out of the category scores, so this costs much less than
+     * getProbabilities() when there are many categories and k is small.
+     *
+     * @param item the item to be classified; needs to have meaningful toString()
+     * @param k    the number of categories to return
+     * @return at most k categories and their scores, sorted with the most likely first
+     */
+    public ClassifierProbability[] getTopCategories(Object item, int k) {
+        DocumentCounts counts = readDocumentCounts(getFeatures(item));
+        double[] scores = getScores(counts);
+        int[] top = selectTop(scores, k);
+        ClassifierProbability[] probabilities = new ClassifierProbability[top.length];
+        for (int i = 0; i < top.length; i++) {
+            probabilities[i] = new ClassifierProbability();
+            probabilities[i].setCategory(counts.getCategory(top[i]));
+            probabilities[i].setScore(scores[top[i]]);
+        }
+        return probabilities;
+    }
+
+    /**
+     * Selects the indexes of the k highest scores with a bounded heap, best first. Equal
+     * scores are ordered by index, which matches ClassifierProbability's ordering since the
+     * categories are indexed in sorted order.
+     *
+     * @param scores the scores to select from
+     * @param k      the number of indexes to select
+     * @return the selected indexes
+     */
+    static int[] selectTop(double[] scores, int k) {
+        int n = Math.max(0, Math.min(k, scores.length));
+        if (n == 0) {
+            return new int[0];
+        }
+        // a min-heap: the root is the worst of the best n seen so far
+        int[] heap = new int[n];
+        int size = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (size < n) {
+                heap[size] = i;
+                siftUp(heap, size++, scores);
+            } else if (isBetter(scores, i, heap[0])) {
+                heap[0] = i;
+                siftDown(heap, n, scores);
+            }
+        }
+        int[] top = new int[n];
+        for (int end = n - 1; end >= 0; end--) {
+            top[end] = heap[0];
+            heap[0] = heap[end];
+            siftDown(heap, end, scores);
+        }
+        return top;
+    }
+
+    private static boolean isBetter(double[] scores, int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    private static void siftUp(int[] heap, int index, double[] scores) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isBetter(scores, heap[parent], heap[index])) {
+                return;
+            }
+            int t = heap[parent];
+            heap[parent] = heap[index];
+            heap[index] = t;
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        int index = 0;
+        while (true) {
+            int worst = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && isBetter(scores, heap[worst], heap[left])) {
+                worst = left;
+            }
+            if (right < size && isBetter(scores, heap[worst], heap[right])) {
+                worst = right;
+            }
+            if (worst == index) {
+                return;
+            }
+            int t = heap[worst];
+            heap[worst] = heap[index];
+            heap[index] = t;
+            index = worst;
+        }
+    }
+
     public String getClassification(Object item, String defaultCat) {
         if (getCategories().size() == 0) {
             return defaultCat;
         }
+        DocumentCounts counts = readDocumentCounts(getFeatures(item));
+        return getClassification(counts, getClassificationScores(counts), defaultCat);
+    }
 
-        ClassifierProbability[] probs = getProbabilities(item);
-        ClassifierProbability cp = probs[0];
+    /**
+     * Classifies an item as it's read; see ClassifierImpl.train(Reader, String).
+     *
+     * @param item       the item to be classified
+     * @param defaultCat the category to use if the item can't be classified
+     * @return the category
+     * @throws IOException if the item can't be read
+     */
+    public String getClassification(Reader item, String defaultCat) throws IOException {
+        if (getCategories().size() == 0) {
+            return defaultCat;
+        }
+        DocumentCounts counts = readDocumentCounts(notifyListeners(getUniqueWords(item)));
+        return getClassification(counts, getClassificationScores(counts), defaultCat);
+    }
 
-        for (ClassifierProbability p : probs) {
-            if (p.getCategory().equals(cp.getCategory())) {
-                continue;
-            }
-            if (p.getScore() * getCategoryThreshold(cp.getCategory()) > cp.getScore()) {
-                return defaultCat;
-            }
+    /**
+     * Picks a category from a document's scores, applying the category thresholds. The best
+     * category has to beat every other by its threshold, so only the runner-up needs checking.
+     *
+     * @param counts     the document's counts
+     * @param scores     the score for each category, indexed like the counts' categories
+     * @param defaultCat the category to use if the best isn't far enough ahead of the rest
+     * @return the category
+     */
+    protected String getClassification(DocumentCounts counts, double[] scores, String defaultCat) {
+        int[] top = selectTop(scores, 2);
+        if (top.length == 0) {
+            return defaultCat;
         }
-        return cp.getCategory();
+        String best = counts.getCategory(top[0]);
+        if (top.length > 1 && scores[top[1]] * getCategoryThreshold(best) > scores[top[0]]) {
+            return defaultCat;
+        }
+        return best;
     }
 
     /**
@@ -105,18 +535,8 @@ public class NaiveClassifierImpl extends ClassifierImpl implements NaiveClassifi
             throw new ClassifierException("No categories; please train before classification"
                     + " or provide default category.");
         }
-        ClassifierProbability[] probs = getProbabilities(item);
-        ClassifierProbability cp = probs[0];
-
-        for (ClassifierProbability p : probs) {
-            if (p.getCategory().equals(cp.getCategory())) {
-                continue;
-            }
-            if (p.getScore() > cp.getScore()) {
-                cp = p;
-            }
-        }
-        return cp.getCategory();
+        DocumentCounts counts = readDocumentCounts(getFeatures(item));
+        return counts.getCategory(selectTop(getClassificationScores(counts), 1)[0]);
     }
 
     /*
@@ -131,9 +551,34 @@ public class NaiveClassifierImpl extends ClassifierImpl implements NaiveClassifi
     }
 
     public double getDocumentProbabilityForCategory(Set<String> features, String category) {
+        DocumentCounts counts = readDocumentCounts(features);
+        int index = counts.indexOfCategory(category);
+        if (index == -1) {
+            return 0.0;
+        }
+        return getDocumentProbabilityForCategory(counts, index);
+    }
+
+    protected double getDocumentProbabilityForCategory(DocumentCounts counts, int category) {
         double p = 1.0;
-        for (String f : features) {
-            p *= getWeightedProbability(f, category);
+        for (int f = 0; f < counts.getFeatureSize(); f++) {
+            p *= getWeightedProbability(counts, f, category);
+        }
+        return p;
+    }
+
+    /**
+     * The log of {@link #getDocumentProbabilityForCategory(DocumentCounts, int)}, computed
+     * as a sum so it stays finite however many features the document has.
+     *
+     * @param counts   the document's counts
+     * @param category the category index
+     * @return the log of the document's probability for the category
+     */
+    protected double getLogDocumentProbabilityForCategory(DocumentCounts counts, int category) {
+        double p = 0.0;
+        for (int f = 0; f < counts.getFeatureSize(); f++) {
+            p += Math.log(getWeightedProbability(counts, f, category));
         }
         return p;
     }
@@ -144,14 +589,37 @@ public class NaiveClassifierImpl extends ClassifierImpl implements NaiveClassifi
     }
     */
 
+    /**
+     * Returns the probability of the item being in the category. Categories that
+     * have never been trained have no probability at all, and yield 0.0.
+     *
+     * @param item     the item to be classified; needs to have meaningful toString()
+     * @param category the category to score
+     * @return the probability of the item for the category
+     */
     public double getProbabilityForCategory(Object item, String category) {
-        double catprob = catcount(category);
-        catprob /= totalcount();
-        double dp = getDocumentProbabilityForCategory(item, category);
+        DocumentCounts counts = readDocumentCounts(wordLister.getUniqueWords(item));
+        int index = counts.indexOfCategory(category);
+        if (index == -1) {
+            return 0.0;
+        }
+        return getProbabilityForCategory(counts, index);
+    }
+
+    protected double getProbabilityForCategory(DocumentCounts counts, int category) {
+        double catprob = counts.getCategoryCount(category);
+        catprob /= counts.getTotalCount();
+        double dp = getDocumentProbabilityForCategory(counts, category);
         dp *= catprob;
         return dp;
     }
 
+    protected double getLogProbabilityForCategory(DocumentCounts counts, int category) {
+        double catprob = counts.getCategoryCount(category);
+        catprob /= counts.getTotalCount();
+        return Math.log(catprob) + getLogDocumentProbabilityForCategory(counts, category);
+    }
+
     protected Set<ClassificationListener> classificationListeners = Sets.newHashSet();
 
     public void addListener(ClassificationListener listener) {
@@ -0,0 +1,451 @@
+package com.enigmastation.collections;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from Strings to primitive long counts, for many threads counting at once.
+ * <p/>
+ * The keys are spread over a number of stripes, each an open-addressed table of keys beside an
+ * AtomicLongArray of counts, so a count costs an array slot instead of a map entry and a boxed
+ * number. Adding to a key that's already there is a compare-and-set on its slot and never locks;
+ * adding a key, removing one or growing a table locks that stripe only. Each stripe keeps its own
+ * running total, so the total of every count is the sum of a handful of numbers, and it includes
+ * every completed update however many threads are writing.
+ * <p/>
+ * When a table is grown, each count is taken out of the old table by swapping in a marker, so an
+ * update that lands on the old table sees the marker and is retried on the new one; no update is
+ * lost in the copy. Removed keys leave their slot behind, marked absent, until the next resize.
+ * The two markers are the two smallest longs, which therefore can't be stored as counts.
+ */
+public class ConcurrentCounterMap implements Serializable {
+    private static final long serialVersionUID = 6230431878427640315L;
+
+    static final long MOVED = Long.MIN_VALUE;
+    static final long ABSENT = Long.MIN_VALUE + 1;
+
+    private static final int MIN_CAPACITY = 4;
+    private static final AtomicLongFieldUpdater<Stripe> TOTAL =
+            AtomicLongFieldUpdater.newUpdater(Stripe.class, "total");
+
+    private final Stripe[] stripes;
+    private final int shift;
+
+    /**
+     * Creates a map with a stripe per processor, up to 16.
+     */
+    public ConcurrentCounterMap() {
+        this(Math.min(16, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param concurrency the number of threads expected to add keys at once; rounded up to a power of two
+     */
+    public ConcurrentCounterMap(int concurrency) {
+        int count = 1;
+        int bits = 0;
+        while (count < concurrency) {
+            count <<= 1;
+            bits++;
+        }
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        shift = 32 - bits;
+    }
+
+    /**
+     * @param key     the key
+     * @param missing the value to return if the key isn't in the map
+     * @return the key's count
+     */
+    public long get(String key, long missing) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        long value = stripe.table.get(key, hash);
+        if (value == MOVED) {
+            synchronized (stripe) {
+                value = stripe.table.get(key, hash);
+            }
+        }
+        return value == ABSENT ? missing : value;
+    }
+
+    public boolean containsKey(String key) {
+        return get(key, ABSENT) != ABSENT;
+    }
+
+    /**
+     * Adds to a key's count, which starts at zero if the key isn't in the map.
+     *
+     * @param key   the key
+     * @param delta the amount to add
+     * @return the key's new count
+     */
+    public long add(String key, long delta) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        Table table = stripe.table;
+        int slot = table.find(key, hash);
+        if (slot != -1) {
+            long value;
+            while ((value = table.counts.get(slot)) != MOVED && value != ABSENT) {
+                if (table.counts.compareAndSet(slot, value, value + delta)) {
+                    TOTAL.addAndGet(stripe, delta);
+                    return value + delta;
+                }
+            }
+        }
+        synchronized (stripe) {
+            long previous = stripe.set(key, hash, delta, true);
+            return previous == ABSENT ? delta : previous + delta;
+        }
+    }
+
+    /**
+     * Sets a key's count.
+     *
+     * @param key     the key
+     * @param value   the new count
+     * @param missing the value to return if the key wasn't in the map
+     * @return the key's previous count
+     */
+    public long put(String key, long value, long missing) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            long previous = stripe.set(key, hash, value, false);
+            return previous == ABSENT ? missing : previous;
+        }
+    }
+
+    /**
+     * Sets a key's count if the key isn't in the map.
+     *
+     * @param key     the key
+     * @param value   the count to set
+     * @param missing the value to return if the key wasn't in the map
+     * @return the key's count, left as it was, or missing if the count was set
+     */
+    public long putIfAbsent(String key, long value, long missing) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            // adders never bring back an absent key without the lock, so this can't change under us
+            long previous = stripe.table.get(key, hash);
+            if (previous != ABSENT) {
+                return previous;
+            }
+            stripe.set(key, hash, value, false);
+            return missing;
+        }
+    }
+
+    /**
+     * Sets a key's count if the key is in the map.
+     *
+     * @param key     the key
+     * @param value   the new count
+     * @param missing the value to return if the key wasn't in the map
+     * @return the key's previous count
+     */
+    public long replace(String key, long value, long missing) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            long previous = stripe.replace(key, hash, 0, true, value);
+            return previous == ABSENT ? missing : previous;
+        }
+    }
+
+    /**
+     * Sets a key's count if the key is in the map with the expected count.
+     *
+     * @param key      the key
+     * @param expected the count the key has to have
+     * @param value    the new count
+     * @return whether the count was set
+     */
+    public boolean compareAndSet(String key, long expected, long value) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            return stripe.replace(key, hash, expected, false, value) == expected;
+        }
+    }
+
+    /**
+     * @param key     the key
+     * @param missing the value to return if the key wasn't in the map
+     * @return the key's count before it was removed
+     */
+    public long remove(String key, long missing) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            long previous = stripe.remove(key, hash, 0, true);
+            return previous == ABSENT ? missing : previous;
+        }
+    }
+
+    /**
+     * Removes a key if it has the expected count.
+     *
+     * @param key      the key
+     * @param expected the count the key has to have
+     * @return whether the key was removed
+     */
+    public boolean compareAndRemove(String key, long expected) {
+        int hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            return stripe.remove(key, hash, expected, false) == expected;
+        }
+    }
+
+    /**
+     * @return the sum of every count in the map
+     */
+    public long getTotal() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            total += stripe.total;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of keys in the map
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return the keys in the map; keys added or removed while this runs may or may not be included
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<String>(size());
+        for (Stripe stripe : stripes) {
+            Table table = stripe.table;
+            for (int slot = 0; slot < table.keys.length(); slot++) {
+                String key = table.keys.get(slot);
+                if (key != null && table.counts.get(slot) != ABSENT) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Removes every key. The counts are taken out of the tables the way a resize takes them,
+     * and subtracted from the totals, so an update running at the same time can't leave a
+     * total behind.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                Table old = stripe.table;
+                for (int slot = 0; slot < old.capacity(); slot++) {
+                    long value = old.counts.getAndSet(slot, MOVED);
+                    if (value != ABSENT && value != MOVED && old.keys.get(slot) != null) {
+                        TOTAL.addAndGet(stripe, -value);
+                    }
+                }
+                stripe.table = new Table(MIN_CAPACITY);
+                stripe.size = 0;
+                stripe.used = 0;
+            }
+        }
+    }
+
+    private Stripe stripeFor(int hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[hash >>> shift];
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * One stripe's table. Its fields only change with the stripe locked.
+     */
+    static final class Stripe implements Serializable {
+        private static final long serialVersionUID = -1953077187394315254L;
+
+        volatile Table table = new Table(MIN_CAPACITY);
+        volatile long total;
+        volatile int size;
+        /**
+         * Slots holding a key, including removed ones.
+         */
+        int used;
+
+        /**
+         * Sets or adds to a key's count, adding the key if it isn't there.
+         *
+         * @return the previous count, or ABSENT
+         */
+        long set(String key, int hash, long value, boolean add) {
+            Table t = table;
+            int slot = t.find(key, hash);
+            if (slot == -1) {
+                if ((used + 1) * 4 > t.capacity() * 3) {
+                    t = resize();
+                }
+                t.insert(key, hash, value);
+                used++;
+                size++;
+                TOTAL.addAndGet(this, value);
+                return ABSENT;
+            }
+            // nothing else moves this table's counts while the stripe is locked, but lock-free
+            // adders can still change them
+            long previous;
+            long updated;
+            do {
+                previous = t.counts.get(slot);
+                updated = add && previous != ABSENT ? previous + value : value;
+            } while (!t.counts.compareAndSet(slot, previous, updated));
+            if (previous == ABSENT) {
+                size++;
+                TOTAL.addAndGet(this, updated);
+            } else {
+                TOTAL.addAndGet(this, updated - previous);
+            }
+            return previous;
+        }
+
+        /**
+         * Sets the count of a key that's there, if any is set or its count is expected.
+         *
+         * @return the count the key had, whether or not it was changed, or ABSENT
+         */
+        long replace(String key, int hash, long expected, boolean any, long value) {
+            Table t = table;
+            int slot = t.find(key, hash);
+            if (slot == -1) {
+                return ABSENT;
+            }
+            long previous;
+            do {
+                previous = t.counts.get(slot);
+                if (previous == ABSENT || !any && previous != expected) {
+                    return previous;
+                }
+            } while (!t.counts.compareAndSet(slot, previous, value));
+            TOTAL.addAndGet(this, value - previous);
+            return previous;
+        }
+
+        /**
+         * Removes a key, if any is set or its count is expected.
+         *
+         * @return the count the key had, whether or not it was removed, or ABSENT
+         */
+        long remove(String key, int hash, long expected, boolean any) {
+            Table t = table;
+            int slot = t.find(key, hash);
+            if (slot == -1) {
+                return ABSENT;
+            }
+            long previous;
+            do {
+                previous = t.counts.get(slot);
+                if (previous == ABSENT || !any && previous != expected) {
+                    return previous;
+                }
+            } while (!t.counts.compareAndSet(slot, previous, ABSENT));
+            size--;
+            TOTAL.addAndGet(this, -previous);
+            return previous;
+        }
+
+        /**
+         * Moves every key into a table that they fill at most half of, dropping removed keys.
+         */
+        Table resize() {
+            Table old = table;
+            int capacity = MIN_CAPACITY;
+            while ((size + 1) * 2 > capacity) {
+                capacity <<= 1;
+            }
+            Table t = new Table(capacity);
+            used = 0;
+            for (int slot = 0; slot < old.capacity(); slot++) {
+                String key = old.keys.get(slot);
+                if (key != null) {
+                    long value = old.counts.getAndSet(slot, MOVED);
+                    if (value != ABSENT) {
+                        t.insert(key, hash(key), value);
+                        used++;
+                    }
+                }
+            }
+            table = t;
+            return t;
+        }
+    }
+
+    static final class Table implements Serializable {
+        private static final long serialVersionUID = 2860939462140823301L;
+
+        final AtomicReferenceArray<String> keys;
+        final AtomicLongArray counts;
+
+        Table(int capacity) {
+            keys = new AtomicReferenceArray<String>(capacity);
+            counts = new AtomicLongArray(capacity);
+        }
+
+        int capacity() {
+            return counts.length();
+        }
+
+        int find(String key, int hash) {
+            int mask = counts.length() - 1;
+            int slot = hash & mask;
+            String k;
+            while ((k = keys.get(slot)) != null) {
+                if (k.equals(key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the key's count, MOVED if the table has been replaced, or ABSENT
+         */
+        long get(String key, int hash) {
+            int slot = find(key, hash);
+            return slot == -1 ? ABSENT : counts.get(slot);
+        }
+
+        /**
+         * Adds a key the table doesn't have. The count is written before the key, so a reader
+         * that finds the key finds its count.
+         */
+        void insert(String key, int hash, long value) {
+            int mask = counts.length() - 1;
+            int slot = hash & mask;
+            while (keys.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            counts.set(slot, value);
+            keys.set(slot, key);
+        }
+    }
+}
@@ -37,8 +37,6 @@ public class TrieInt {
 
     public int getValue(String key) {
         if (validateKey) {
-            if(validateKey)
-                throw new Error("Waiiiitasec... how come validateKey is true?");
             if (!CollectionsUtil.validKey(key)) {
                 throw new IllegalArgumentException("Trie can't accept key '" + key + "'");
             }
@@ -47,11 +45,11 @@ public class TrieInt {
     }
 
     protected TrieInt getTrie(String key) {
-        final byte[] keyChars = key.intern().getBytes();
+        final byte[] keyChars = key.getBytes();
         final int keyLength = keyChars.length;
         TrieInt current = this;
         for (int i = 0; i < keyLength; ++i) {
-            char k = (char) (keyChars[i]);
+            int k = keyChars[i] & 0xFF;
             if (current.branches[k] == null) {
                 current.branches[k] = new TrieInt(validateKey);
             }
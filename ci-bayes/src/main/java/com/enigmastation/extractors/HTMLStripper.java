@@ -1,5 +1,8 @@
 package com.enigmastation.extractors;
 
+import java.io.IOException;
+import java.io.Reader;
+
 /**
  * Created by IntelliJ IDEA.
  * User: joeo
@@ -14,4 +17,13 @@ package com.enigmastation.extractors;
  */
 public interface HTMLStripper {
     String stripTags(String sourceText);
+
+    /**
+     * Writes the visible text of an HTML document to a target as the document is read.
+     *
+     * @param source the HTML to read
+     * @param target where the text goes
+     * @throws IOException if the source can't be read or the target can't be written
+     */
+    void stripTags(Reader source, Appendable target) throws IOException;
 }
@@ -0,0 +1,19 @@
+package com.enigmastation.extractors;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * A word lister that can tokenize a document as it's read, a buffer at a time, so the document
+ * never has to be held in memory as a whole. The Object methods of WordLister still work; an
+ * implementation should read a CharSequence in place rather than calling toString() on it.
+ *
+ * @see com.enigmastation.extractors.impl.ScanningWordLister
+ */
+public interface StreamingWordLister extends WordLister {
+    void addWords(Reader document, Collection<String> collection) throws IOException;
+
+    Set<String> getUniqueWords(Reader document) throws IOException;
+}
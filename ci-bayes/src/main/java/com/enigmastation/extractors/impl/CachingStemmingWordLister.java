@@ -0,0 +1,114 @@
+package com.enigmastation.extractors.impl;
+
+import com.google.common.collect.MapMaker;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This returns the same words as StemmingWordLister, but remembers the stems it has computed.
+ * Word frequencies in natural language fall off steeply, so a few thousand words make up most
+ * of the words in any document; those only get stemmed once.
+ * <p/>
+ * The cache is shared by every thread using the lister. When it reaches its size limit it is
+ * cleared and starts over, which keeps it bounded without tracking how recently each word was used.
+ * Each thread gets its own PorterStemmer, reused for every word it stems.
+ * <p/>
+ * The hit and miss counts are there to help size the cache.
+ */
+public class CachingStemmingWordLister extends ScanningWordLister {
+    private static final long serialVersionUID = 2911560405729861732L;
+
+    private int cacheSize = 20000;
+    private int stemmerMinLength = StemmingWordLister.STEMMER_MIN_LENGTH;
+
+    private transient Map<String, String> stems = new MapMaker().makeMap();
+    private transient AtomicLong hits = new AtomicLong();
+    private transient AtomicLong misses = new AtomicLong();
+
+    private static final ThreadLocal<PorterStemmer> stemmers = new ThreadLocal<PorterStemmer>() {
+        @Override
+        protected PorterStemmer initialValue() {
+            return new PorterStemmer();
+        }
+    };
+
+    /**
+     * The cache and its statistics aren't serialized; a deserialized lister starts with empty ones.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        stems = new MapMaker().makeMap();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @param cacheSize the number of stems to keep before the cache is cleared
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public int getStemmerMinLength() {
+        return stemmerMinLength;
+    }
+
+    /**
+     * @param stemmerMinLength words this long or shorter are used as they are, without stemming
+     */
+    public void setStemmerMinLength(int stemmerMinLength) {
+        this.stemmerMinLength = stemmerMinLength;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of stemmed words that were found in the cache, or 0.0 if none have been stemmed
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    protected void addToken(char[] buffer, int length, Collection<String> collection) {
+        String word = new String(buffer, 0, length);
+        if (length > stemmerMinLength) {
+            String stem = stems.get(word);
+            if (stem == null) {
+                misses.incrementAndGet();
+                PorterStemmer stemmer = stemmers.get();
+                stemmer.stem(buffer, 0, length);
+                stem = stemmer.toString();
+                if (stems.size() >= cacheSize) {
+                    stems.clear();
+                }
+                stems.put(word, stem);
+            } else {
+                hits.incrementAndGet();
+            }
+            word = stem;
+        }
+        collection.add(word);
+    }
+}
@@ -3,25 +3,41 @@ package com.enigmastation.extractors.impl;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
-import org.apache.lucene.analysis.Token;
-import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.analysis.tokenattributes.TermAttribute;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.tartarus.snowball.SnowballProgram;
+import org.tartarus.snowball.ext.EnglishStemmer;
 
 import com.google.common.collect.Sets;
 
 /**
  * This is an implementation of a wordlister that uses Lucene's Snowball
- * stemming implementation. It's... okay. In the training corpus, it was just
- * as accurate as the SimpleWordLister, but almost twice as slow:
+ * stemming implementation: a StandardTokenizer, lowercased, then stemmed
+ * with the English Snowball stemmer.
  * <p/>
- * 2146 items, 36 misses: 98.32% accuracy and 6ms/item.
+ * Building that chain is most of the cost for a short document, so each
+ * thread builds it once and resets the tokenizer for every document after
+ * that. The document isn't lowercased up front; the LowerCaseFilter does
+ * that one token at a time.
  * <p/>
- * Yuck. Use this puppy ONLY if you really need Snowball.
+ * Snowball itself costs several times what the tokenizer does, so each
+ * thread also remembers the stems it has computed, as CachingStemmingWordLister
+ * does, and clears them when there are more than STEM_CACHE_SIZE. The terms
+ * are the same ones Lucene's SnowballFilter would give.
+ * <p/>
+ * Earlier versions read the terms from the tokenizer rather than the
+ * filter, so they paid for Snowball without ever getting a stem; the
+ * figures they were measured with (98.32% accuracy and 6ms/item over the
+ * training corpus) don't apply any more. WordListerTest has a benchmark
+ * that compares this with StemmingWordLister.
  */
 public class LuceneStemmingWordLister extends SimpleWordLister {
     /**
@@ -29,20 +45,78 @@ public class LuceneStemmingWordLister extends SimpleWordLister {
 	 */
 	private static final long serialVersionUID = -2079281327726910236L;
 	static final Set<String> emptySet = Sets.newHashSet();
+    static final int STEM_CACHE_SIZE = 20000;
+
+    /**
+     * One thread's analysis chain.
+     */
+    private static final class Analysis {
+        final StandardTokenizer tokenizer;
+        final TokenStream stream;
+        final TermAttribute termAttribute;
+
+        Analysis() {
+            tokenizer = new StandardTokenizer(Version.LUCENE_30, new StringReader(""));
+            tokenizer.setMaxTokenLength(20);
+            stream = new StemFilter(new LowerCaseFilter(tokenizer), new EnglishStemmer());
+            termAttribute = stream.addAttribute(TermAttribute.class);
+        }
+    }
+
+    /**
+     * Stems each term with Snowball, unless it has stemmed the term before.
+     */
+    private static final class StemFilter extends TokenFilter {
+        final SnowballProgram stemmer;
+        final TermAttribute termAttribute;
+        final Map<String, String> stems = new HashMap<String, String>();
+
+        StemFilter(TokenStream input, SnowballProgram stemmer) {
+            super(input);
+            this.stemmer = stemmer;
+            termAttribute = addAttribute(TermAttribute.class);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            String term = termAttribute.term();
+            String stem = stems.get(term);
+            if (stem == null) {
+                stemmer.setCurrent(term);
+                stemmer.stem();
+                stem = stemmer.getCurrent();
+                if (stems.size() >= STEM_CACHE_SIZE) {
+                    stems.clear();
+                }
+                stems.put(term, stem);
+            }
+            if (!stem.equals(term)) {
+                termAttribute.setTermBuffer(stem);
+            }
+            return true;
+        }
+    }
+
+    private static final ThreadLocal<Analysis> analyses = new ThreadLocal<Analysis>() {
+        @Override
+        protected Analysis initialValue() {
+            return new Analysis();
+        }
+    };
 
     public void addWords(Object obj, Collection<String> features) {
-        String document = obj.toString().toLowerCase();
-        StandardTokenizer tokenizer = new StandardTokenizer(Version.LUCENE_30,new StringReader(document));
-        tokenizer.setMaxTokenLength(20);
-        SnowballFilter psf = new SnowballFilter(tokenizer, "English");
-        OffsetAttribute offsetAttribute = tokenizer.getAttribute(OffsetAttribute.class);
-        TermAttribute termAttribute = tokenizer.getAttribute(TermAttribute.class);
+        Analysis analysis = analyses.get();
         try {
-            while(tokenizer.incrementToken()) {
-               features.add(termAttribute.term());
+            analysis.tokenizer.reset(new StringReader(obj.toString()));
+            while (analysis.stream.incrementToken()) {
+                features.add(analysis.termAttribute.term());
             }
+            analysis.stream.end();
         } catch(IOException e) {
             throw new Error("IOException where no IOException should be", e);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,20 @@
 package com.enigmastation.extractors.impl;
 
 import com.enigmastation.extractors.HTMLStripper;
+import org.apache.xerces.xni.Augmentations;
+import org.apache.xerces.xni.XMLString;
+import org.apache.xerces.xni.XNIException;
 import org.apache.xerces.xni.parser.XMLDocumentFilter;
 import org.apache.xerces.xni.parser.XMLInputSource;
 import org.apache.xerces.xni.parser.XMLParserConfiguration;
 import org.cyberneko.html.HTMLConfiguration;
+import org.cyberneko.html.filters.DefaultFilter;
 import org.cyberneko.html.filters.ElementRemover;
-import org.cyberneko.html.filters.Writer;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.nio.CharBuffer;
 
 /**
  * Created by IntelliJ IDEA.
@@ -25,40 +29,90 @@ import java.io.StringWriter;
  * this class, I'm sorry, but it's not my fault. I warned you.
  */
 public class NekoHTMLStripper implements HTMLStripper {
-    static final ElementRemover remover;
+    /**
+     * One thread's parser. The configuration and its filters are built once and reused for
+     * every document the thread strips; the ElementRemover keeps state while it parses, so
+     * it can't be shared between threads.
+     */
+    private static final class Parser {
+        final XMLParserConfiguration configuration = new HTMLConfiguration();
+        final TextCollector collector = new TextCollector();
 
-    static {
-        remover = new ElementRemover();
-        remover.removeElement("script");
-        remover.removeElement("object");
-        remover.removeElement("applet");
+        Parser() {
+            ElementRemover remover = new ElementRemover();
+            remover.removeElement("script");
+            remover.removeElement("style");
+            remover.removeElement("object");
+            remover.removeElement("applet");
+            XMLDocumentFilter[] filters = {
+                    remover, collector,
+            };
+            configuration.setProperty("http://cyberneko.org/html/properties/filters", filters);
+        }
+    }
+
+    /**
+     * Passes the text of the document on, already decoded by the parser, and drops everything else.
+     */
+    private static final class TextCollector extends DefaultFilter {
+        Appendable target;
+
+        @Override
+        public void characters(XMLString text, Augmentations augs) throws XNIException {
+            try {
+                if (target instanceof StringBuilder) {
+                    ((StringBuilder) target).append(text.ch, text.offset, text.length);
+                } else {
+                    target.append(CharBuffer.wrap(text.ch, text.offset, text.length));
+                }
+            } catch (IOException e) {
+                throw new XNIException(e);
+            }
+        }
     }
 
+    private static final ThreadLocal<Parser> parsers = new ThreadLocal<Parser>() {
+        @Override
+        protected Parser initialValue() {
+            return new Parser();
+        }
+    };
+
     public String stripTags(String sourceText) {
         if (sourceText == null || sourceText.equals("")) {
             return "";
         }
-        StringWriter sw = new StringWriter();
-        Writer writer = new Writer(sw, null);
-        XMLDocumentFilter[] filters = {
-                remover, writer,
-        };
-        XMLParserConfiguration parser = new HTMLConfiguration();
-        parser.setProperty("http://cyberneko.org/html/properties/filters", filters);
-
-        XMLInputSource source = new XMLInputSource(null, null, null, new StringReader(sourceText), null);
+        StringBuilder text = new StringBuilder(sourceText.length());
         try {
-            parser.parse(source);
-            return sw.getBuffer()
-                    .toString()
-                    .replaceAll("&apos;", "'")
-                    .replaceAll("&gt;", ">")
-                    .replaceAll("&lt;", "<")
-                    .replaceAll("&quot;", "\"")
-                    .replaceAll("&amp;", "&");
+            stripTags(new StringReader(sourceText), text);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return text.toString();
+    }
 
+    /**
+     * Strips the tags from a document as it's read. The parser decodes every character and
+     * entity reference, named or numeric, as it scans, so the text arrives at the target
+     * decoded; a WordLister can read it from there (a StringBuilder, say) without it ever
+     * becoming a String.
+     *
+     * @param source the HTML to read
+     * @param target where the text goes
+     * @throws IOException if the source can't be read or the target can't be written
+     */
+    public void stripTags(Reader source, Appendable target) throws IOException {
+        Parser parser = parsers.get();
+        parser.collector.target = target;
+        try {
+            parser.configuration.parse(new XMLInputSource(null, null, null, source, null));
+        } catch (XNIException e) {
+            if (e.getException() instanceof IOException) {
+                throw (IOException) e.getException();
+            }
+            throw e;
+        } finally {
+            parser.collector.target = null;
+        }
     }
 }
@@ -0,0 +1,397 @@
+package com.enigmastation.extractors.impl;
+
+import com.enigmastation.extractors.HTMLStripper;
+import org.cyberneko.html.HTMLEntities;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This strips HTML with a small state machine instead of a parser. The classifier only wants the
+ * visible text of a message, so there's no document tree, no tag balancing and no error recovery
+ * beyond passing text through: one pass over the characters skips tags, comments, declarations and
+ * the bodies of <code>script</code>, <code>style</code>, <code>object</code> and <code>applet</code>
+ * elements, and decodes character and entity references as it goes. A self-closing
+ * <code>&lt;script/&gt;</code> has no body, so nothing after it is skipped.
+ * <p/>
+ * Named entities are looked up in NekoHTML's entity table, so the two strippers know the same names.
+ * A <code>&lt;</code> that doesn't start a tag is kept as text, as is an <code>&amp;</code> that
+ * doesn't start a known reference.
+ */
+public class ScanningHTMLStripper implements HTMLStripper {
+    static final String[] SKIPPED_ELEMENTS = {"script", "style", "object", "applet"};
+
+    public String stripTags(String sourceText) {
+        if (sourceText == null || sourceText.equals("")) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder(sourceText.length());
+        try {
+            stripTags((CharSequence) sourceText, text);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return text.toString();
+    }
+
+    public void stripTags(Reader source, Appendable target) throws IOException {
+        Scanner scanner = new Scanner(target);
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                scanner.scan(buffer[i]);
+            }
+        }
+        scanner.finish();
+    }
+
+    /**
+     * Strips the tags from a document that's already in memory, without copying it.
+     *
+     * @param source the HTML
+     * @param target where the text goes
+     * @throws IOException if the target can't be written
+     */
+    public void stripTags(CharSequence source, Appendable target) throws IOException {
+        Scanner scanner = new Scanner(target);
+        for (int i = 0, length = source.length(); i < length; i++) {
+            scanner.scan(source.charAt(i));
+        }
+        scanner.finish();
+    }
+
+    /**
+     * The state machine. It's fed one character at a time, so a Reader can be stripped in chunks.
+     */
+    static final class Scanner {
+        static final int TEXT = 0;
+        static final int TAG_OPEN = 1;
+        static final int TAG_NAME = 2;
+        static final int IN_TAG = 3;
+        static final int DOUBLE_QUOTED = 4;
+        static final int SINGLE_QUOTED = 5;
+        static final int BANG = 6;
+        static final int BANG_DASH = 7;
+        static final int COMMENT = 8;
+        static final int DECLARATION = 9;
+        static final int REFERENCE = 10;
+        static final int SKIPPED = 11;
+
+        static final int MAX_NAME = 10;
+        static final int MAX_REFERENCE = 32;
+
+        final Appendable target;
+        final StringBuilder builder;
+        int state = TEXT;
+        final char[] name = new char[MAX_NAME];
+        int nameLength;
+        boolean closing;
+        boolean valueStart;
+        boolean unquoted;
+        /**
+         * Whether the last thing in the tag so far is a '/' outside a quoted value.
+         */
+        boolean selfClosing;
+        final char[] reference = new char[MAX_REFERENCE];
+        int referenceLength;
+        int dashes;
+        /**
+         * While skipping an element's body: the element, and how much of its end tag has been seen.
+         */
+        String skipped;
+        int matched;
+
+        Scanner(Appendable target) {
+            this.target = target;
+            this.builder = target instanceof StringBuilder ? (StringBuilder) target : null;
+        }
+
+        void emit(char c) throws IOException {
+            if (builder != null) {
+                builder.append(c);
+            } else {
+                target.append(c);
+            }
+        }
+
+        void scan(char c) throws IOException {
+            switch (state) {
+                case TEXT:
+                    if (c == '<') {
+                        state = TAG_OPEN;
+                    } else if (c == '&') {
+                        referenceLength = 0;
+                        state = REFERENCE;
+                    } else {
+                        emit(c);
+                    }
+                    break;
+                case TAG_OPEN:
+                    nameLength = 0;
+                    closing = false;
+                    if (c == '!') {
+                        state = BANG;
+                    } else if (c == '/') {
+                        closing = true;
+                        state = TAG_NAME;
+                    } else if (c == '?') {
+                        state = DECLARATION;
+                    } else if (isLetter(c)) {
+                        state = TAG_NAME;
+                        scan(c);
+                    } else {
+                        // not a tag after all
+                        emit('<');
+                        state = TEXT;
+                        scan(c);
+                    }
+                    break;
+                case TAG_NAME:
+                    if (isLetter(c) || c >= '0' && c <= '9') {
+                        if (nameLength < MAX_NAME) {
+                            name[nameLength] = Character.toLowerCase(c);
+                        }
+                        nameLength++;
+                    } else {
+                        valueStart = false;
+                        unquoted = false;
+                        selfClosing = false;
+                        state = IN_TAG;
+                        scan(c);
+                    }
+                    break;
+                case IN_TAG:
+                    // a quote only opens a quoted value right after the '='; anywhere else it's
+                    // just part of the tag, as it is in <img src=x.gif?q=1">
+                    if (c == '>') {
+                        endTag();
+                        break;
+                    }
+                    if (!Character.isWhitespace(c)) {
+                        selfClosing = c == '/';
+                    }
+                    if (Character.isWhitespace(c)) {
+                        unquoted = false;
+                    } else if (c == '=' && !unquoted) {
+                        valueStart = true;
+                    } else if (valueStart && c == '"') {
+                        state = DOUBLE_QUOTED;
+                    } else if (valueStart && c == '\'') {
+                        state = SINGLE_QUOTED;
+                    } else if (valueStart) {
+                        valueStart = false;
+                        unquoted = true;
+                    }
+                    break;
+                case DOUBLE_QUOTED:
+                    if (c == '"') {
+                        valueStart = false;
+                        state = IN_TAG;
+                    }
+                    break;
+                case SINGLE_QUOTED:
+                    if (c == '\'') {
+                        valueStart = false;
+                        state = IN_TAG;
+                    }
+                    break;
+                case BANG:
+                    state = c == '-' ? BANG_DASH : DECLARATION;
+                    if (c == '>') {
+                        state = TEXT;
+                    }
+                    break;
+                case BANG_DASH:
+                    if (c == '-') {
+                        dashes = 0;
+                        state = COMMENT;
+                    } else {
+                        state = c == '>' ? TEXT : DECLARATION;
+                    }
+                    break;
+                case COMMENT:
+                    if (c == '-') {
+                        dashes++;
+                    } else if (c == '>' && dashes >= 2) {
+                        state = TEXT;
+                    } else {
+                        dashes = 0;
+                    }
+                    break;
+                case DECLARATION:
+                    if (c == '>') {
+                        state = TEXT;
+                    }
+                    break;
+                case REFERENCE:
+                    if (c == ';') {
+                        endReference(true);
+                        state = TEXT;
+                    } else if (referenceLength < MAX_REFERENCE && continuesReference(c)) {
+                        reference[referenceLength++] = c;
+                    } else {
+                        endReference(false);
+                        state = TEXT;
+                        scan(c);
+                    }
+                    break;
+                case SKIPPED:
+                    skip(c);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state " + state);
+            }
+        }
+
+        /**
+         * Called at the end of the document, to flush whatever was left half-read.
+         */
+        void finish() throws IOException {
+            if (state == TAG_OPEN) {
+                emit('<');
+            } else if (state == REFERENCE) {
+                endReference(false);
+            }
+            state = TEXT;
+        }
+
+        private void endTag() {
+            state = TEXT;
+            if (closing || selfClosing || nameLength > MAX_NAME) {
+                return;
+            }
+            for (String element : SKIPPED_ELEMENTS) {
+                if (isName(element)) {
+                    skipped = element;
+                    matched = 0;
+                    state = SKIPPED;
+                    return;
+                }
+            }
+        }
+
+        private boolean isName(String element) {
+            if (element.length() != nameLength) {
+                return false;
+            }
+            for (int i = 0; i < nameLength; i++) {
+                if (name[i] != element.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Looks for the end tag of the skipped element: "&lt;/", the name, and then anything
+         * that can't continue the name.
+         */
+        private void skip(char c) {
+            if (matched == 0) {
+                if (c == '<') {
+                    matched = 1;
+                }
+            } else if (matched == 1) {
+                matched = c == '/' ? 2 : (c == '<' ? 1 : 0);
+            } else if (matched - 2 < skipped.length()) {
+                if (Character.toLowerCase(c) == skipped.charAt(matched - 2)) {
+                    matched++;
+                } else {
+                    matched = c == '<' ? 1 : 0;
+                }
+            } else if (isLetter(c) || c >= '0' && c <= '9') {
+                matched = 0;
+            } else {
+                // the end tag itself is skipped like any other tag
+                closing = true;
+                nameLength = 0;
+                valueStart = false;
+                unquoted = false;
+                state = IN_TAG;
+                if (c == '>') {
+                    state = TEXT;
+                }
+            }
+        }
+
+        /**
+         * Emits the reference collected so far, decoded if it's one we know and as it was
+         * written if it isn't.
+         *
+         * @param terminated whether the reference ended with a semicolon
+         */
+        private void endReference(boolean terminated) throws IOException {
+            int c = decode();
+            if (c != -1) {
+                if (c > Character.MAX_VALUE) {
+                    for (char ch : Character.toChars(c)) {
+                        emit(ch);
+                    }
+                } else {
+                    emit((char) c);
+                }
+                return;
+            }
+            emit('&');
+            for (int i = 0; i < referenceLength; i++) {
+                emit(reference[i]);
+            }
+            if (terminated) {
+                emit(';');
+            }
+        }
+
+        /**
+         * A numeric reference ends at the first character that isn't a digit, so
+         * <code>&amp;#8217s</code> is a quote followed by an s, as it is to a browser.
+         */
+        private boolean continuesReference(char c) {
+            if (referenceLength == 0) {
+                return c == '#' || isLetter(c) || c >= '0' && c <= '9';
+            }
+            if (reference[0] != '#') {
+                return isLetter(c) || c >= '0' && c <= '9';
+            }
+            if (referenceLength == 1 && (c == 'x' || c == 'X')) {
+                return true;
+            }
+            boolean hex = referenceLength > 1 && (reference[1] == 'x' || reference[1] == 'X');
+            return Character.digit(c, hex ? 16 : 10) != -1;
+        }
+
+        private int decode() {
+            if (referenceLength == 0) {
+                return -1;
+            }
+            if (reference[0] != '#') {
+                return HTMLEntities.get(new String(reference, 0, referenceLength));
+            }
+            int start = 1;
+            int radix = 10;
+            if (referenceLength > 1 && (reference[1] == 'x' || reference[1] == 'X')) {
+                start = 2;
+                radix = 16;
+            }
+            if (start == referenceLength) {
+                return -1;
+            }
+            int value = 0;
+            for (int i = start; i < referenceLength; i++) {
+                int digit = Character.digit(reference[i], radix);
+                if (digit == -1) {
+                    return -1;
+                }
+                value = value * radix + digit;
+                if (value > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            return value == 0 ? -1 : value;
+        }
+
+        private static boolean isLetter(char c) {
+            return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.enigmastation.extractors.impl;
+
+import com.enigmastation.extractors.StreamingWordLister;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * This returns the same words as SimpleWordLister, without the regular expression. It walks
+ * the document one character at a time, lowercasing word characters into a buffer as it goes,
+ * and only builds a String for a word that passes the length limits. The document isn't copied
+ * or lowercased as a whole; a CharSequence, such as a StringBuilder, is read in place, and a
+ * Reader is read a few thousand characters at a time.
+ * <p/>
+ * Word characters are the ones matched by <code>\w</code>: ASCII letters, digits and the underscore.
+ * <p/>
+ * Subclasses can override {@link #addToken(char[], int, Collection)} to work on each word
+ * while it's still in the buffer.
+ */
+public class ScanningWordLister extends SimpleWordLister implements StreamingWordLister {
+    private static final long serialVersionUID = -4619209532874302385L;
+
+    static final int CHUNK_SIZE = 4096;
+
+    public void addWords(Object obj, Collection<String> collection) {
+        CharSequence document = obj instanceof CharSequence ? (CharSequence) obj : obj.toString();
+        char[] buffer = new char[MAX_LENGTH];
+        int length = 0;
+        for (int i = 0, size = document.length(); i < size; i++) {
+            length = scan(document.charAt(i), buffer, length, collection);
+        }
+        endWord(buffer, length, collection);
+    }
+
+    /**
+     * Reads the document a chunk at a time; a word split across two chunks is still one word.
+     */
+    public void addWords(Reader document, Collection<String> collection) throws IOException {
+        char[] chunk = new char[CHUNK_SIZE];
+        char[] buffer = new char[MAX_LENGTH];
+        int length = 0;
+        int read;
+        while ((read = document.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                length = scan(chunk[i], buffer, length, collection);
+            }
+        }
+        endWord(buffer, length, collection);
+    }
+
+    public Set<String> getUniqueWords(Reader document) throws IOException {
+        Set<String> features = Sets.newHashSet();
+        addWords(document, features);
+        return features;
+    }
+
+    /**
+     * Adds one character to the word in the buffer, or ends the word if it isn't a word character.
+     *
+     * @return the length of the word in the buffer afterwards
+     */
+    private int scan(char c, char[] buffer, int length, Collection<String> collection) {
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_') {
+            if (length < MAX_LENGTH) {
+                buffer[length] = c;
+            }
+            return length + 1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            if (length < MAX_LENGTH) {
+                buffer[length] = (char) (c + ('a' - 'A'));
+            }
+            return length + 1;
+        }
+        endWord(buffer, length, collection);
+        return 0;
+    }
+
+    private void endWord(char[] buffer, int length, Collection<String> collection) {
+        if (length > MIN_LENGTH && length < MAX_LENGTH) {
+            addToken(buffer, length, collection);
+        }
+    }
+
+    /**
+     * Adds one accepted word to the collection.
+     *
+     * @param buffer     the word, lowercased; only valid until this method returns
+     * @param length     the length of the word
+     * @param collection the collection to add the word to
+     */
+    protected void addToken(char[] buffer, int length, Collection<String> collection) {
+        collection.add(new String(buffer, 0, length));
+    }
+}
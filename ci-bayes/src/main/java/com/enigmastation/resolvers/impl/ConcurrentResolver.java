@@ -0,0 +1,176 @@
+package com.enigmastation.resolvers.impl;
+
+import com.enigmastation.resolvers.Resolver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A resolver for the hot path: many threads resolving words while training and classifying.
+ * <p/>
+ * Keys are found through an open-addressed table of keys and primitive ids, and ids are turned
+ * back into keys by indexing a dense array, so no entries or boxed Integers are allocated; an
+ * entry costs a few array slots instead of two map entries and an Integer.
+ * <p/>
+ * Lookups never lock. Adding a key does, and a key is only published once its id and its slot
+ * in the id array are written, so a thread that sees a key in the table also sees its id and
+ * can resolve the id back to the key. Ids start at 1 and are handed out in order.
+ */
+public class ConcurrentResolver implements Resolver {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final Object lock = new Object();
+    private volatile Table table;
+    private volatile String[] keys;
+
+    public ConcurrentResolver() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected the number of keys to size the resolver for
+     */
+    public ConcurrentResolver(int expected) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        table = new Table(capacity);
+        keys = new String[Math.max(expected + 1, 16)];
+    }
+
+    /**
+     * @return the number of keys in the resolver
+     */
+    public int size() {
+        return table.size;
+    }
+
+    public boolean addKey(String key, int id) {
+        if (id <= 0) {
+            return false;
+        }
+        synchronized (lock) {
+            if (id < keys.length && keys[id] != null || table.get(key) != -1) {
+                return false;
+            }
+            put(key, id);
+            int last;
+            while ((last = lastId.get()) < id && !lastId.compareAndSet(last, id)) {
+            }
+            return true;
+        }
+    }
+
+    public int addKey(String key) {
+        return getIdForKey(key);
+    }
+
+    public int getId(String key) {
+        return table.get(key);
+    }
+
+    public String getKey(int id) {
+        String[] k = keys;
+        return id > 0 && id < k.length ? k[id] : null;
+    }
+
+    public int getIdForKey(String key) {
+        int id = table.get(key);
+        if (id != -1) {
+            return id;
+        }
+        synchronized (lock) {
+            id = table.get(key);
+            if (id != -1) {
+                return id;
+            }
+            do {
+                id = lastId.incrementAndGet();
+            } while (id < keys.length && keys[id] != null);
+            put(key, id);
+            return id;
+        }
+    }
+
+    /**
+     * Adds a key the table doesn't have yet. Called with the lock held.
+     */
+    private void put(String key, int id) {
+        String[] k = keys;
+        if (id >= k.length) {
+            String[] grown = new String[Math.max(id + 1, k.length << 1)];
+            System.arraycopy(k, 0, grown, 0, k.length);
+            keys = k = grown;
+        }
+        k[id] = key;
+        Table t = table;
+        if ((t.size + 1) * 2 > t.capacity()) {
+            t = t.resize(t.capacity() << 1);
+            table = t;
+        }
+        t.put(key, id);
+    }
+
+    /**
+     * The key-to-id table. Its arrays are only written with the resolver's lock held; a key is
+     * written after its id, through the AtomicReferenceArray, which is what publishes the id to
+     * lock-free readers. A full table is replaced rather than grown in place, so a reader still
+     * holding the old one sees every key that was in it.
+     */
+    private static final class Table {
+        final AtomicReferenceArray<String> keys;
+        final int[] ids;
+        volatile int size;
+
+        Table(int capacity) {
+            keys = new AtomicReferenceArray<String>(capacity);
+            ids = new int[capacity];
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        int get(String key) {
+            int mask = ids.length - 1;
+            int slot = hash(key) & mask;
+            String k;
+            while ((k = keys.get(slot)) != null) {
+                if (k.equals(key)) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void put(String key, int id) {
+            int mask = ids.length - 1;
+            int slot = hash(key) & mask;
+            while (keys.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = id;
+            keys.set(slot, key);
+            size++;
+        }
+
+        Table resize(int capacity) {
+            Table t = new Table(capacity);
+            for (int slot = 0; slot < ids.length; slot++) {
+                String k = keys.get(slot);
+                if (k != null) {
+                    t.put(k, ids[slot]);
+                }
+            }
+            return t;
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+}
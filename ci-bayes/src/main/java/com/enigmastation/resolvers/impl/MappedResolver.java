@@ -0,0 +1,424 @@
+package com.enigmastation.resolvers.impl;
+
+import com.enigmastation.resolvers.Resolver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+
+/**
+ * A resolver kept in memory-mapped files, so the dictionary survives a restart without being
+ * rebuilt: opening one only maps its files, and the ids are the ones it had before.
+ * <p/>
+ * A resolver is a directory of three files:
+ * <ul>
+ * <li><code>strings.dat</code>, an append-only table of keys, UTF-8 encoded and prefixed with
+ * their lengths. A key's id is its position in the table, counting from 1; the header holds
+ * the number of keys and where the next one goes.</li>
+ * <li><code>offsets.dat</code>, the offset of each id's key in the string table, indexed by id.</li>
+ * <li><code>index.dat</code>, an open-addressed hash table of ids, probed linearly by the key's
+ * hashCode(). When it gets half full a table twice the size is written beside it and renamed
+ * over it.</li>
+ * </ul>
+ * One process at a time can open a directory for writing; it holds a lock on the string table.
+ * Any number of others can open it read-only, which shares the mapped pages through the
+ * operating system's page cache instead of giving each JVM its own copy. A read-only resolver
+ * sees keys added after it was opened once a lookup misses and it remaps the files; it can't
+ * add keys itself.
+ * <p/>
+ * Within a JVM, lookups don't lock. Adding a key does, and the key count is written last, so a
+ * reader never follows an id to a key that isn't completely written. Call {@link #flush()} to
+ * force the files to disk; otherwise they're written back whenever the operating system does it.
+ */
+public class MappedResolver implements Resolver, Closeable {
+    static final int MAGIC = 0x43494252;
+    static final int VERSION = 1;
+
+    static final String STRINGS = "strings.dat";
+    static final String OFFSETS = "offsets.dat";
+    static final String INDEX = "index.dat";
+
+    // string table header: magic, version, key count, end of the last key
+    static final int COUNT = 8;
+    static final int END = 12;
+    static final int STRINGS_HEADER = 16;
+    // index header: magic, capacity
+    static final int INDEX_HEADER = 8;
+
+    static final int INITIAL_STRINGS = 64 * 1024;
+    static final int INITIAL_IDS = 1024;
+    static final int INITIAL_CAPACITY = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final boolean readOnly;
+    private final Object lock = new Object();
+    private final RandomAccessFile strings;
+    private final FileLock writeLock;
+    private volatile Mapping mapping;
+    private volatile int count;
+
+    /**
+     * Opens the resolver in a directory for writing, creating it if it doesn't exist.
+     *
+     * @param directory the directory holding the resolver's files
+     * @throws IOException if the files can't be opened, or another process has them open for writing
+     */
+    public MappedResolver(File directory) throws IOException {
+        this(directory, false);
+    }
+
+    /**
+     * @param directory the directory holding the resolver's files
+     * @param readOnly  whether to open the resolver read-only; it has to exist already
+     * @throws IOException if the files can't be opened, or another process has them open for writing
+     */
+    public MappedResolver(File directory, boolean readOnly) throws IOException {
+        this.directory = directory;
+        this.readOnly = readOnly;
+        File file = new File(directory, STRINGS);
+        if (readOnly) {
+            strings = new RandomAccessFile(file, "r");
+            writeLock = null;
+        } else {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+            strings = new RandomAccessFile(file, "rw");
+            writeLock = strings.getChannel().tryLock();
+            if (writeLock == null) {
+                strings.close();
+                throw new IOException(directory + " is open for writing in another process");
+            }
+            if (strings.length() == 0) {
+                create();
+            }
+        }
+        try {
+            mapping = map(new File(directory, INDEX));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        if (mapping.strings.getInt(0) != MAGIC || mapping.strings.getInt(4) != VERSION) {
+            close();
+            throw new IOException(file + " isn't a resolver string table");
+        }
+        count = mapping.strings.getInt(COUNT);
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return the number of keys in the resolver
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Ids are positions in an append-only table, so the only id a key can be given is the next one.
+     *
+     * @return true if the id was the next id and the key wasn't already in the resolver
+     */
+    public boolean addKey(String key, int id) {
+        synchronized (lock) {
+            if (id != count + 1 || getId(key) != -1) {
+                return false;
+            }
+            return append(key) == id;
+        }
+    }
+
+    public int addKey(String key) {
+        return getIdForKey(key);
+    }
+
+    public int getId(String key) {
+        byte[] bytes = encode(key);
+        int id = find(bytes, key.hashCode());
+        if (id == -1 && readOnly && refresh()) {
+            id = find(bytes, key.hashCode());
+        }
+        return id;
+    }
+
+    public String getKey(int id) {
+        if (id > count && readOnly) {
+            refresh();
+        }
+        int limit = count;
+        if (id < 1 || id > limit) {
+            return null;
+        }
+        return decode(mapping, id);
+    }
+
+    /**
+     * @throws IllegalStateException if the resolver is read-only and doesn't have the key
+     */
+    public int getIdForKey(String key) {
+        int id = getId(key);
+        if (id != -1) {
+            return id;
+        }
+        if (readOnly) {
+            throw new IllegalStateException("Can't add " + key + " to the read-only resolver in " + directory);
+        }
+        synchronized (lock) {
+            id = find(encode(key), key.hashCode());
+            return id != -1 ? id : append(key);
+        }
+    }
+
+    /**
+     * Forces everything written so far out to disk.
+     */
+    public void flush() {
+        if (!readOnly && mapping != null) {
+            synchronized (lock) {
+                Mapping m = mapping;
+                m.strings.force();
+                m.offsets.force();
+                m.index.force();
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (lock) {
+            flush();
+            if (writeLock != null) {
+                writeLock.release();
+            }
+            strings.close();
+        }
+    }
+
+    private int find(byte[] key, int hash) {
+        // the count is read before the mapping, so the mapping covers every id up to it
+        int limit = count;
+        Mapping m = mapping;
+        int mask = m.capacity - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = m.index.getInt(INDEX_HEADER + slot * 4)) != 0) {
+            if (id <= limit && matches(m, id, key)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean matches(Mapping m, int id, byte[] key) {
+        int offset = m.offsets.getInt(id * 4);
+        if (m.strings.getInt(offset) != key.length) {
+            return false;
+        }
+        offset += 4;
+        for (int i = 0; i < key.length; i++) {
+            if (m.strings.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a key the resolver doesn't have. Called with the lock held.
+     */
+    private int append(String key) {
+        byte[] bytes = encode(key);
+        int id = count + 1;
+        try {
+            Mapping m = ensureCapacity(id, bytes.length);
+            int end = m.strings.getInt(END);
+            m.strings.putInt(end, bytes.length);
+            ByteBuffer buffer = m.strings.duplicate();
+            buffer.position(end + 4);
+            buffer.put(bytes);
+            m.offsets.putInt(id * 4, end);
+            insert(m.index, m.capacity, key.hashCode(), id);
+            m.strings.putInt(END, end + 4 + bytes.length);
+            m.strings.putInt(COUNT, id);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't add " + key + " to the resolver in " + directory, e);
+        }
+        count = id;
+        return id;
+    }
+
+    private static void insert(MappedByteBuffer index, int capacity, int hash, int id) {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (index.getInt(INDEX_HEADER + slot * 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(INDEX_HEADER + slot * 4, id);
+    }
+
+    /**
+     * Grows whichever files can't take another key, and publishes the new mapping before
+     * anything is written to it.
+     */
+    private Mapping ensureCapacity(int id, int length) throws IOException {
+        Mapping m = mapping;
+        MappedByteBuffer s = m.strings;
+        MappedByteBuffer o = m.offsets;
+        MappedByteBuffer index = m.index;
+        int capacity = m.capacity;
+        long end = s.getInt(END) + 4L + length;
+        if (end > s.capacity()) {
+            long size = s.capacity();
+            while (size < end) {
+                size <<= 1;
+            }
+            s = strings.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, checkSize(size));
+        }
+        if ((id + 1) * 4L > o.capacity()) {
+            o = mapFile(new File(directory, OFFSETS), checkSize(o.capacity() * 2L));
+        }
+        if (id * 2L > capacity) {
+            capacity <<= 1;
+            index = rebuildIndex(new Mapping(s, o, index, m.capacity), capacity);
+        }
+        if (s != m.strings || o != m.offsets || index != m.index) {
+            m = new Mapping(s, o, index, capacity);
+            mapping = m;
+        }
+        return m;
+    }
+
+    /**
+     * Writes an index of the current keys at a new capacity beside the old one, and renames it
+     * over the old one; anything that still has the old one mapped can go on using it.
+     */
+    private MappedByteBuffer rebuildIndex(Mapping m, int capacity) throws IOException {
+        File file = new File(directory, INDEX);
+        File rebuilt = new File(directory, INDEX + ".new");
+        MappedByteBuffer index = mapFile(rebuilt, checkSize(INDEX_HEADER + capacity * 4L));
+        index.putInt(0, MAGIC);
+        index.putInt(4, capacity);
+        for (int id = 1; id <= count; id++) {
+            insert(index, capacity, decode(m, id).hashCode(), id);
+        }
+        index.force();
+        if (!rebuilt.renameTo(file) && !(file.delete() && rebuilt.renameTo(file))) {
+            throw new IOException("Can't replace " + file);
+        }
+        return index;
+    }
+
+    private void create() throws IOException {
+        MappedByteBuffer s = strings.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_STRINGS);
+        s.putInt(0, MAGIC);
+        s.putInt(4, VERSION);
+        s.putInt(COUNT, 0);
+        s.putInt(END, STRINGS_HEADER);
+        mapFile(new File(directory, OFFSETS), (INITIAL_IDS + 1) * 4);
+        MappedByteBuffer index = mapFile(new File(directory, INDEX), INDEX_HEADER + INITIAL_CAPACITY * 4);
+        index.putInt(0, MAGIC);
+        index.putInt(4, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Maps the files as they are now.
+     */
+    private Mapping map(File indexFile) throws IOException {
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        MappedByteBuffer s = strings.getChannel().map(mode, 0, strings.length());
+        MappedByteBuffer o = mapFile(new File(directory, OFFSETS), -1);
+        MappedByteBuffer index = mapFile(indexFile, -1);
+        if (index.getInt(0) != MAGIC) {
+            throw new IOException(indexFile + " isn't a resolver index");
+        }
+        return new Mapping(s, o, index, index.getInt(4));
+    }
+
+    /**
+     * Remaps a read-only resolver if the writer has added keys since it was last mapped.
+     *
+     * @return true if there are new keys
+     */
+    private boolean refresh() {
+        if (mapping.strings.getInt(COUNT) <= count) {
+            return false;
+        }
+        synchronized (lock) {
+            int written = mapping.strings.getInt(COUNT);
+            if (written <= count) {
+                return false;
+            }
+            try {
+                mapping = map(new File(directory, INDEX));
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't remap the resolver in " + directory, e);
+            }
+            count = Math.max(count, mapping.strings.getInt(COUNT));
+            return true;
+        }
+    }
+
+    /**
+     * Maps a whole file, or the first <code>size</code> bytes of it, growing it if it's shorter.
+     * The channel is closed once the file is mapped; the mapping stays valid.
+     */
+    private MappedByteBuffer mapFile(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        try {
+            FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+            return raf.getChannel().map(mode, 0, size < 0 ? raf.length() : size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long checkSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Resolver files can't be larger than 2GB");
+        }
+        return size;
+    }
+
+    private static byte[] encode(String key) {
+        ByteBuffer encoded = UTF8.encode(key);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    private static String decode(Mapping m, int id) {
+        int offset = m.offsets.getInt(id * 4);
+        ByteBuffer buffer = m.strings.duplicate();
+        buffer.position(offset + 4);
+        buffer.limit(offset + 4 + m.strings.getInt(offset));
+        return UTF8.decode(buffer).toString();
+    }
+
+    /**
+     * One consistent set of mapped files.
+     */
+    private static final class Mapping {
+        final MappedByteBuffer strings;
+        final MappedByteBuffer offsets;
+        final MappedByteBuffer index;
+        final int capacity;
+
+        Mapping(MappedByteBuffer strings, MappedByteBuffer offsets, MappedByteBuffer index, int capacity) {
+            this.strings = strings;
+            this.offsets = offsets;
+            this.index = index;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -34,7 +34,7 @@ public class MemoryResolver implements Resolver {
         return Collections.unmodifiableMap(ids);
     }
 
-    public boolean addKey(String key, int id) {
+    public synchronized boolean addKey(String key, int id) {
         if (ids.containsKey(id)) {
             return false;
         }
@@ -43,7 +43,7 @@ public class MemoryResolver implements Resolver {
         return true;
     }
 
-    public int addKey(String key) {
+    public synchronized int addKey(String key) {
         int keyId = 0;
         while (!addKey(key, keyId = ++lastId)) {
         }
@@ -57,11 +57,22 @@ public class MemoryResolver implements Resolver {
         return -1;
     }
 
+    /**
+     * Lookups of keys that already have ids don't lock; assigning a new id does, and checks
+     * again first, so two threads resolving the same new key get the same id.
+     */
     public int getIdForKey(String key) {
-        if (getId(key) == -1) {
+        Integer id = keys.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = keys.get(key);
+            if (id != null) {
+                return id;
+            }
             return addKey(key);
         }
-        return getId(key);
     }
 
     public String getKey(int id) {
@@ -0,0 +1,34 @@
+package com.enigmastation.classifier.impl;
+
+import com.enigmastation.dao.model.Category;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+
+public class CategorySnapshotTest {
+    static Category category(String name, Long count) {
+        Category c = new Category();
+        c.setCategory(name);
+        c.setCount(count);
+        return c;
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testZeroCountsLeftOut() {
+        CategorySnapshot snapshot = CategorySnapshot.of(Arrays.asList(category("good", 3L), category("bad", 0L),
+                category("ugly", null)));
+        assertEquals(snapshot.getNames(), Arrays.asList("good"));
+        assertEquals(snapshot.getTotal(), 3.0);
+
+        snapshot = snapshot.with("bad", 2);
+        assertEquals(snapshot.getNames(), Arrays.asList("bad", "good"));
+        assertEquals(snapshot.getTotal(), 5.0);
+
+        snapshot = snapshot.with("good", 0);
+        assertEquals(snapshot.getNames(), Arrays.asList("bad"));
+        assertEquals(snapshot.getCount("good"), 0L);
+        assertEquals(snapshot.getTotal(), 2.0);
+    }
+}
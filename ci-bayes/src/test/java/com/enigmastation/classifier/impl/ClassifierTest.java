@@ -10,11 +10,23 @@ import com.enigmastation.classifier.NaiveClassifier;
 import com.enigmastation.dao.db4o.CategoryDAOImpl;
 import com.enigmastation.dao.db4o.FeatureDAOImpl;
 import com.enigmastation.extractors.WordLister;
+import com.enigmastation.extractors.impl.ScanningWordLister;
 import com.enigmastation.extractors.impl.SimpleWordLister;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class ClassifierTest {
     public static void main(String[] args) {
@@ -64,6 +76,14 @@ public class ClassifierTest {
         assertEquals(c1.compareTo(c2), 1);
         c2.setScore(0.05);
         assertEquals(c1.compareTo(c2), -1);
+        // missing scores and categories both sort last
+        c2.setScore(null);
+        assertEquals(c1.compareTo(c2), -1);
+        assertEquals(c2.compareTo(c1), 1);
+        c2.setScore(0.1);
+        c2.setCategory(null);
+        assertEquals(c1.compareTo(c2), -1);
+        assertEquals(c2.compareTo(c1), 1);
     }
 
     @Test(groups = {"fulltest", "normal"})
@@ -92,6 +112,25 @@ public class ClassifierTest {
         assertEquals(impl.fcount("quick", "bad"), 1.0, 0.1);
     }
 
+    @Test(groups = {"fulltest", "normal"})
+    public void testTrainAll() {
+        ClassifierImpl impl = new ClassifierImpl();
+        impl.categoryDAO = new CategoryDAOImpl();
+        impl.featureDAO = new FeatureDAOImpl();
+        impl.setWordLister(new SimpleWordLister());
+        impl.init();
+        impl.trainAll(Arrays.asList("the quick brown fox", "the quick rabbit", "lazy dog"), "batchgood");
+        Map<String, String> items = new HashMap<String, String>();
+        items.put("make quick money", "batchbad");
+        items.put("buy pharmaceuticals now", "batchbad");
+        impl.trainAll(items);
+        assertEquals(impl.fcount("quick", "batchgood"), 2.0, 0.1);
+        assertEquals(impl.fcount("lazy", "batchgood"), 1.0, 0.1);
+        assertEquals(impl.fcount("quick", "batchbad"), 1.0, 0.1);
+        assertEquals(impl.catcount("batchgood"), 3.0, 0.1);
+        assertEquals(impl.catcount("batchbad"), 2.0, 0.1);
+    }
+
     @Test(groups = {"normal"})
     public void testIssue2() {
         FisherClassifierImpl fc = new FisherClassifierImpl();
@@ -146,6 +185,127 @@ public class ClassifierTest {
         }
     }
 
+    @Test(groups = {"fulltest", "normal"})
+    public void testLogScoring() {
+        NaiveClassifierImpl nc = (NaiveClassifierImpl) getNaiveClassifier();
+        ClassifierProbability[] plain = nc.getProbabilities("quick rabbit");
+        nc.setLogScoring(true);
+        ClassifierProbability[] logScored = nc.getProbabilities("quick rabbit");
+        assertEquals(logScored[0].getCategory(), plain[0].getCategory());
+        assertEquals(logScored[0].getScore() + logScored[1].getScore(), 1.0, 0.0001);
+        assertEquals(logScored[1].getScore() / logScored[0].getScore(),
+                plain[1].getScore() / plain[0].getScore(), 0.0001);
+        assertEquals(nc.getClassification("quick rabbit", "unknown"), "good");
+        assertEquals(nc.getClassification("quick money", "unknown"), "bad");
+
+        // a few thousand unseen words take the plain product below Double.MIN_VALUE
+        StringBuilder document = new StringBuilder("quick money casino");
+        for (int i = 0; i < 3000; i++) {
+            document.append(" unseen").append(i);
+        }
+        nc.setLogScoring(false);
+        assertEquals(nc.getProbabilities(document)[0].getScore(), 0.0, 0.0);
+        nc.setLogScoring(true);
+        assertEquals(nc.getLogProbabilities(document)[0].getCategory(), "bad");
+        assertEquals(nc.getClassification(document, "unknown"), "bad");
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testClassifyAll() {
+        NaiveClassifierImpl nc = (NaiveClassifierImpl) getNaiveClassifier();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            nc.setExecutor(executor);
+            List<String> items = Arrays.asList("quick rabbit", "quick money", "the online casino",
+                    "nobody jumps", "zzz");
+            List<ClassifierProbability[]> all = nc.getProbabilitiesAll(items);
+            List<String> classifications = nc.classifyAll(items, "unknown");
+            assertEquals(all.size(), items.size());
+            for (int i = 0; i < items.size(); i++) {
+                ClassifierProbability[] single = nc.getProbabilities(items.get(i));
+                assertEquals(all.get(i).length, single.length);
+                for (int j = 0; j < single.length; j++) {
+                    assertEquals(all.get(i)[j].getCategory(), single[j].getCategory());
+                    assertEquals(all.get(i)[j].getScore(), single[j].getScore(), 0.000001);
+                }
+                assertEquals(classifications.get(i), nc.getClassification(items.get(i), "unknown"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testSelectTop() {
+        double[] scores = {0.1, 0.5, 0.3, 0.5, 0.0, 0.9};
+        assertEquals(NaiveClassifierImpl.selectTop(scores, 3), new int[]{5, 1, 3});
+        assertEquals(NaiveClassifierImpl.selectTop(scores, 1), new int[]{5});
+        assertEquals(NaiveClassifierImpl.selectTop(scores, 10), new int[]{5, 1, 3, 2, 0, 4});
+        assertEquals(NaiveClassifierImpl.selectTop(scores, 0).length, 0);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testTopCategories() {
+        NaiveClassifier nc = getNaiveClassifier();
+        ClassifierProbability[] all = nc.getProbabilities("quick money");
+        for (int k = 1; k <= all.length + 1; k++) {
+            ClassifierProbability[] top = nc.getTopCategories("quick money", k);
+            assertEquals(top.length, Math.min(k, all.length));
+            for (int i = 0; i < top.length; i++) {
+                assertEquals(top[i], all[i]);
+            }
+        }
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testBoundedScoring() {
+        NaiveClassifierImpl nc = (NaiveClassifierImpl) getNaiveClassifier();
+        Random random = new Random(42);
+        for (int topic = 0; topic < 40; topic++) {
+            for (int doc = 0; doc < 3; doc++) {
+                nc.train(randomDocument(random, topic), "topic" + topic);
+            }
+        }
+        nc.setCategoryThreshold("topic3", 2.0);
+        nc.setCategoryThreshold("topic7", 50.0);
+        nc.setLogScoring(true);
+        for (int i = 0; i < 50; i++) {
+            String document = randomDocument(random, random.nextInt(40));
+            String expected = nc.getClassification(document, "unknown");
+            String expectedBest = nc.getClassification(document);
+            nc.setBoundedScoring(true);
+            assertEquals(nc.getClassification(document, "unknown"), expected);
+            assertEquals(nc.getClassification(document), expectedBest);
+            nc.setBoundedScoring(false);
+        }
+    }
+
+    private String randomDocument(Random random, int topic) {
+        StringBuilder document = new StringBuilder();
+        for (int word = 0; word < 30; word++) {
+            if (random.nextInt(3) == 0) {
+                document.append(" common").append(random.nextInt(50));
+            } else {
+                document.append(" topic").append(topic).append("word").append(random.nextInt(20));
+            }
+        }
+        return document.toString();
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testReaderClassification() throws IOException {
+        NaiveClassifierImpl nc = (NaiveClassifierImpl) getNaiveClassifier();
+        nc.setWordLister(new ScanningWordLister());
+        nc.train(new StringReader("the quick rabbit jumps fences"), "good");
+        nc.train(new StringReader("make quick money in the online casino"), "bad");
+        assertEquals(nc.getClassification(new StringReader("quick rabbit"), "unknown"),
+                nc.getClassification("quick rabbit", "unknown"));
+        assertEquals(nc.getClassification(new StringReader("quick money"), "unknown"), "bad");
+        // a word lister that can't stream still gets the whole document
+        nc.setWordLister(new SimpleWordLister());
+        assertEquals(nc.getClassification(new StringReader("quick money"), "unknown"), "bad");
+    }
+
     @Test(groups = {"fulltest", "normal"})
     public void testFisherClassifier() {
         FisherClassifier nc = getFisherClassifier();
@@ -164,6 +324,25 @@ public class ClassifierTest {
         assertEquals(nc.getClassification("quick money", "none"), "none");
     }
 
+    @Test(groups = {"fulltest", "normal"})
+    public void testLogFisherClassifier() {
+        FisherClassifierImpl nc = (FisherClassifierImpl) getFisherClassifier();
+        double good = nc.getFisherProbability("quick rabbit", "good");
+        double bad = nc.getFisherProbability("quick rabbit", "bad");
+        nc.setLogScoring(true);
+        assertEquals(nc.getFisherProbability("quick rabbit", "good"), good, 0.0001);
+        assertEquals(nc.getFisherProbability("quick rabbit", "bad"), bad, 0.0001);
+
+        StringBuilder document = new StringBuilder("quick money casino");
+        for (int i = 0; i < 10000; i++) {
+            document.append(" unseen").append(i);
+        }
+        ClassifierProbability[] probs = nc.getProbabilities(document);
+        for (ClassifierProbability p : probs) {
+            assertTrue(p.getScore() >= 0.0 && p.getScore() <= 1.0, p.toString());
+        }
+    }
+
     Classifier getClassifier() {
         ClassifierImpl cl = new ClassifierImpl();
         cl.categoryDAO = new CategoryDAOImpl();
@@ -0,0 +1,183 @@
+package com.enigmastation.collections;
+
+import com.enigmastation.classifier.ClassifierMap;
+import com.enigmastation.classifier.FeatureMap;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class CounterMapTest {
+    @Test(groups = {"fulltest", "normal"})
+    public void testClassifierMap() {
+        ClassifierMap map = new ClassifierMap();
+        map.incrementCategory("good");
+        map.incrementCategory("good", 4);
+        map.incrementCategory("bad", 3);
+        assertEquals(map.get("good").intValue(), 5);
+        assertEquals(map.getTotalCount(), 8.0, 0.0);
+        assertNull(map.get("ugly"));
+        assertNull(map.put("ugly", 2));
+        assertEquals(map.put("ugly", 1).intValue(), 2);
+        assertEquals(map.getTotalCount(), 9.0, 0.0);
+        assertEquals(map.size(), 3);
+
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        expected.put("good", 5);
+        expected.put("bad", 3);
+        expected.put("ugly", 1);
+        assertEquals(map, expected);
+        assertEquals(new HashMap<String, Integer>(map), expected);
+
+        assertEquals(map.remove("bad").intValue(), 3);
+        assertFalse(map.containsKey("bad"));
+        assertEquals(map.getTotalCount(), 6.0, 0.0);
+        map.incrementCategory("bad");
+        assertEquals(map.get("bad").intValue(), 1);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(map.getTotalCount(), 0.0, 0.0);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testClassifierMapIsConcurrentMap() {
+        ConcurrentMap<String, Integer> map = new ClassifierMap();
+        assertNull(map.putIfAbsent("good", 2));
+        assertEquals(map.putIfAbsent("good", 7).intValue(), 2);
+        assertNull(map.replace("bad", 1));
+        assertFalse(map.containsKey("bad"));
+        assertEquals(map.replace("good", 3).intValue(), 2);
+        assertFalse(map.replace("good", 2, 4));
+        assertTrue(map.replace("good", 3, 4));
+        assertFalse(map.replace("bad", 0, 1));
+        assertFalse(map.remove("good", 3));
+        assertTrue(map.remove("good", 4));
+        assertTrue(map.isEmpty());
+        assertEquals(((ClassifierMap) map).getTotalCount(), 0.0, 0.0);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testClassifierMapSaturates() {
+        ClassifierMap map = new ClassifierMap();
+        map.put("good", Integer.MAX_VALUE);
+        map.incrementCategory("good", 10);
+        map.put("bad", Integer.MIN_VALUE);
+        map.incrementCategory("bad", -10);
+        assertEquals(map.get("good").intValue(), Integer.MAX_VALUE);
+        assertEquals(map.get("bad").intValue(), Integer.MIN_VALUE);
+        assertEquals(map.getTotalCount(), (double) Integer.MAX_VALUE + Integer.MIN_VALUE, 0.0);
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        map.incrementCategory("good", -10);
+        assertEquals(map.get("good").intValue(), Integer.MAX_VALUE);
+        assertEquals(map.remove("good").intValue(), Integer.MAX_VALUE);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testFeatureMap() {
+        FeatureMap features = new FeatureMap();
+        ClassifierMap rabbit = features.getFeature("rabbit");
+        assertSame(features.getFeature("rabbit"), rabbit);
+        rabbit.incrementCategory("good");
+        assertEquals(features.get("rabbit").get("good").intValue(), 1);
+    }
+
+    /**
+     * Threads add to the same keys while new keys are being added, so the tables grow while
+     * counts are being updated; no update may be lost, from the counts or from the total.
+     */
+    @Test(groups = {"fulltest", "normal"})
+    public void testConcurrentCounterMap() throws Exception {
+        final int threads = 8;
+        final int keys = 20000;
+        final ConcurrentCounterMap map = new ConcurrentCounterMap(4);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 2003;
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < keys; i++) {
+                            int key = (i + offset) % keys;
+                            map.add("key" + key, 1);
+                            map.add("hot", 1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(map.size(), keys + 1);
+        for (int i = 0; i < keys; i++) {
+            assertEquals(map.get("key" + i, -1), threads);
+        }
+        assertEquals(map.get("hot", -1), threads * keys);
+        assertEquals(map.getTotal(), 2L * threads * keys);
+        assertEquals(map.keys().size(), keys + 1);
+    }
+
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Reports the memory a million counts take, beyond their keys, in a ConcurrentCounterMap and in
+     * the ConcurrentHashMap of Integers ClassifierMap used to be.
+     */
+    @Test(groups = {"fulltest"})
+    public void testCounterMapMemory() {
+        int count = 1000000;
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "feature" + i;
+        }
+        long before = usedMemory();
+        ConcurrentCounterMap counters = new ConcurrentCounterMap();
+        for (String key : keys) {
+            counters.add(key, 1000);
+        }
+        long counterMemory = usedMemory() - before;
+
+        before = usedMemory();
+        ConcurrentHashMap<String, Integer> map = new ConcurrentHashMap<String, Integer>();
+        for (String key : keys) {
+            map.put(key, 1000);
+        }
+        long mapMemory = usedMemory() - before;
+
+        assertEquals(counters.getTotal(), 1000L * count);
+        assertEquals(map.size(), counters.size());
+        System.out.printf("%d counts: ConcurrentCounterMap %.1f bytes/key, ConcurrentHashMap %.1f bytes/key%n",
+                count, (double) counterMemory / count, (double) mapMemory / count);
+        assertTrue(counterMemory < mapMemory);
+    }
+}
@@ -0,0 +1,18 @@
+package com.enigmastation.collections;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TrieTest {
+    @Test(groups = {"fulltest", "normal"})
+    public void testTrieDefaults() {
+        TrieInt ints = new TrieInt();
+        assertEquals(ints.getValue("rabbit"), 0);
+        ints.setValue("rabbit", 3);
+        assertEquals(ints.getValue("rabbit"), 3);
+        TrieDouble doubles = new TrieDouble();
+        doubles.setValue("caf\u00e9", 0.5);
+        assertEquals(doubles.getValue("caf\u00e9"), 0.5, 0.0);
+    }
+}
@@ -0,0 +1,172 @@
+package com.enigmastation.extractors.impl;
+
+import com.enigmastation.extractors.HTMLStripper;
+import com.enigmastation.extractors.WordLister;
+import com.ice.tar.TarEntry;
+import com.ice.tar.TarInputStream;
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.testng.annotations.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class HTMLStripperTest {
+    static final String html = "<html><head><title>Offer</title><script>var quick = 1;</script></head>"
+            + "<body><p>Quick &amp; <b>brown</b> &#102;&#x6f;x &lt;jumps&gt; &quot;over&quot; caf&eacute;</p>"
+            + "<object><param name=\"movie\" value=\"x\">hidden</object></body></html>";
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testNekoStripTags() {
+        HTMLStripper stripper = new NekoHTMLStripper();
+        assertEquals(stripper.stripTags(html), "OfferQuick & brown fox <jumps> \"over\" caf\u00e9");
+        assertEquals(stripper.stripTags(""), "");
+        assertEquals(stripper.stripTags(null), "");
+        // the parser is reused; a second document mustn't see anything of the first
+        assertEquals(stripper.stripTags("<p>second</p>"), "second");
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testNekoStripTagsToWordLister() throws IOException {
+        HTMLStripper stripper = new NekoHTMLStripper();
+        StringBuilder text = new StringBuilder();
+        stripper.stripTags(new StringReader(html), text);
+        WordLister lister = new ScanningWordLister();
+        assertEquals(lister.getUniqueWords(text), lister.getUniqueWords(stripper.stripTags(html)));
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testScanningStripTags() {
+        HTMLStripper stripper = new ScanningHTMLStripper();
+        assertEquals(stripper.stripTags(html), "OfferQuick & brown fox <jumps> \"over\" caf\u00e9");
+        assertEquals(stripper.stripTags(""), "");
+        assertEquals(stripper.stripTags(null), "");
+        assertEquals(stripper.stripTags("a < b && c > d"), "a < b && c > d");
+        assertEquals(stripper.stripTags("<!-- <p>hidden</p> -- still -->shown<!DOCTYPE html><?xml x?>"), "shown");
+        assertEquals(stripper.stripTags("<style type=\"text/css\">p { color: red }</style >text</STYLE>"), "text");
+        assertEquals(stripper.stripTags("<script>if (a<b) document.write('</scr'+'ipt>')</script>after"), "after");
+        assertEquals(stripper.stripTags("<img src=x.gif?q=1\">visible<a title='>'>link</a>"), "visiblelink");
+        assertEquals(stripper.stripTags("<script/>one <style />two <script src=\"x.js\"/>three"), "one two three");
+        assertEquals(stripper.stripTags("<script type=text/javascript>hidden</script>shown"), "shown");
+        assertEquals(stripper.stripTags("&#8217s &#x41;&unknown; &amp &#0; &#"), "\u2019s A&unknown; & &#0; &#");
+        assertEquals(stripper.stripTags("&#x1F600;"), new String(Character.toChars(0x1F600)));
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testScanningStripTagsFromReader() throws IOException {
+        ScanningHTMLStripper stripper = new ScanningHTMLStripper();
+        StringBuilder text = new StringBuilder();
+        stripper.stripTags(new StringReader(html), text);
+        assertEquals(text.toString(), stripper.stripTags(html));
+    }
+
+    /**
+     * Reads the HTML messages out of the training corpora.
+     *
+     * @param limit the most messages to take from each archive
+     * @return the messages
+     * @throws IOException if an archive can't be read
+     */
+    static List<String> readHTMLMessages(int limit) throws IOException {
+        File directory = new File(System.getProperty("user.dir") + "/target/test-classes/training");
+        File[] archives = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".tar.bz2");
+            }
+        });
+        List<String> messages = new ArrayList<String>();
+        for (File archive : archives) {
+            InputStream in = new BufferedInputStream(new FileInputStream(archive));
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                in.read(new byte[2]);
+                TarInputStream tar = new TarInputStream(new CBZip2InputStream(in));
+                int count = 0;
+                TarEntry entry;
+                byte[] buffer = new byte[16384];
+                while (count < limit && (entry = tar.getNextEntry()) != null) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    int read;
+                    while ((read = tar.read(buffer)) != -1) {
+                        bytes.write(buffer, 0, read);
+                    }
+                    String message = bytes.toString("ISO-8859-1");
+                    if (message.toLowerCase().contains("<html")) {
+                        messages.add(message);
+                        count++;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return messages;
+    }
+
+    @Test(groups = {"fulltest"})
+    public void testScanningMatchesNeko() throws IOException {
+        List<String> messages = readHTMLMessages(100);
+        HTMLStripper neko = new NekoHTMLStripper();
+        HTMLStripper scanning = new ScanningHTMLStripper();
+        WordLister lister = new ScanningWordLister();
+        int identical = 0;
+        double similarity = 0.0;
+        for (String message : messages) {
+            Set<String> expected = lister.getUniqueWords(neko.stripTags(message));
+            Set<String> actual = lister.getUniqueWords(scanning.stripTags(message));
+            if (expected.equals(actual)) {
+                identical++;
+            }
+            Set<String> union = new HashSet<String>(expected);
+            union.addAll(actual);
+            expected.retainAll(actual);
+            similarity += union.isEmpty() ? 1.0 : (double) expected.size() / union.size();
+        }
+        similarity /= messages.size();
+        System.out.printf("%d HTML messages, %d with identical words, mean similarity %.4f%n",
+                messages.size(), identical, similarity);
+        assertTrue(messages.size() > 0, "no HTML messages found in the corpora");
+        assertTrue(similarity > 0.98, "stripped text differs from NekoHTMLStripper's");
+    }
+
+    /**
+     * Times the two strippers over the corpora's HTML messages. It asserts on wall-clock time, so
+     * it's in the "benchmark" group rather than the ones the build runs.
+     */
+    @Test(groups = {"benchmark"})
+    public void testStripperSpeed() throws IOException {
+        List<String> messages = readHTMLMessages(100);
+        HTMLStripper[] strippers = {new NekoHTMLStripper(), new ScanningHTMLStripper()};
+        long[] times = new long[strippers.length];
+        for (int i = 0; i < strippers.length; i++) {
+            for (String message : messages) {
+                strippers[i].stripTags(message);
+            }
+            long start = System.nanoTime();
+            for (int pass = 0; pass < 5; pass++) {
+                for (String message : messages) {
+                    strippers[i].stripTags(message);
+                }
+            }
+            times[i] = System.nanoTime() - start;
+            System.out.printf("%s: %.1f messages/s%n", strippers[i].getClass().getSimpleName(),
+                    messages.size() * 5 / (times[i] / 1000000000.0));
+        }
+        assertTrue(times[1] < times[0], "ScanningHTMLStripper is slower than NekoHTMLStripper");
+    }
+}
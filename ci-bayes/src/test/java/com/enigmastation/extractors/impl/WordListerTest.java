@@ -0,0 +1,208 @@
+package com.enigmastation.extractors.impl;
+
+import com.enigmastation.extractors.WordLister;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.util.Version;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class WordListerTest {
+    static final String[] documents = {
+            "Now is the time - 'now'",
+            "the quick brown fox jumps over the lazy dog",
+            "MAKE QUICK MONEY in the Online Casino!!! http://www.example.com/casino?id=42",
+            "snake_case_words and CamelCaseWords, digits 12345 and a1b2c3",
+            "averyveryveryverylongwordthatistoolong short ab abc abcdefghijklmnopqrs abcdefghijklmnopqrst",
+            "\u00fcber caf\u00e9 na\u00efve r\u00e9sum\u00e9 stra\u00dfe",
+            "",
+            "end"
+    };
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testScanningMatchesSimple() {
+        WordLister simple = new SimpleWordLister();
+        WordLister scanning = new ScanningWordLister();
+        for (String document : documents) {
+            List<String> expected = new ArrayList<String>();
+            List<String> actual = new ArrayList<String>();
+            simple.addWords(document, expected);
+            scanning.addWords(document, actual);
+            assertEquals(actual, expected, document);
+            assertEquals(scanning.getUniqueWords(document), simple.getUniqueWords(document), document);
+        }
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testScanningReadsCharSequence() {
+        WordLister scanning = new ScanningWordLister();
+        StringBuilder document = new StringBuilder("The Quick rabbit");
+        assertEquals(scanning.getUniqueWords(document), scanning.getUniqueWords(document.toString()));
+        assertEquals(scanning.getUniqueWords(document).size(), 3);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testScanningReadsReader() throws IOException {
+        ScanningWordLister scanning = new ScanningWordLister();
+        for (String document : documents) {
+            List<String> expected = new ArrayList<String>();
+            List<String> actual = new ArrayList<String>();
+            scanning.addWords(document, expected);
+            // three characters at a time, so words are split between reads
+            scanning.addWords(new FilterReader(new StringReader(document)) {
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    return super.read(cbuf, off, Math.min(len, 3));
+                }
+            }, actual);
+            assertEquals(actual, expected, document);
+        }
+        assertEquals(scanning.getUniqueWords(new StringReader(documents[1])), scanning.getUniqueWords(documents[1]));
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testCachingStemmingMatchesStemming() {
+        WordLister stemming = new StemmingWordLister();
+        CachingStemmingWordLister caching = new CachingStemmingWordLister();
+        for (int pass = 0; pass < 2; pass++) {
+            for (String document : documents) {
+                List<String> expected = new ArrayList<String>();
+                List<String> actual = new ArrayList<String>();
+                stemming.addWords(document, expected);
+                caching.addWords(document, actual);
+                assertEquals(actual, expected, document);
+            }
+        }
+        assertTrue(caching.getHitCount() > 0);
+        assertTrue(caching.getMissCount() > 0);
+        assertTrue(caching.getHitRate() >= 0.5);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testCachingStemmingStaysBounded() {
+        CachingStemmingWordLister caching = new CachingStemmingWordLister();
+        caching.setCacheSize(10);
+        for (String document : documents) {
+            caching.getUniqueWords(document);
+            caching.getUniqueWords(document);
+        }
+        assertEquals(caching.getUniqueWords("jumping jumps jumped"), new StemmingWordLister().getUniqueWords("jumping jumps jumped"));
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testCachingStemmingSerializes() throws Exception {
+        CachingStemmingWordLister caching = new CachingStemmingWordLister();
+        caching.setCacheSize(10);
+        caching.getUniqueWords(documents[1]);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ObjectOutputStream(bytes).writeObject(caching);
+        CachingStemmingWordLister copy = (CachingStemmingWordLister) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(copy.getCacheSize(), 10);
+        assertEquals(copy.getMissCount(), 0L);
+        assertEquals(copy.getUniqueWords(documents[1]), caching.getUniqueWords(documents[1]));
+        assertTrue(copy.getMissCount() > 0);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testLuceneStemmingStems() {
+        WordLister lucene = new LuceneStemmingWordLister();
+        Set<String> words = lucene.getUniqueWords("Jumping JUMPS jumped");
+        assertEquals(words, Collections.singleton("jump"));
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testLuceneStemmingMatchesSnowballFilter() throws IOException {
+        WordLister lucene = new LuceneStemmingWordLister();
+        for (int pass = 0; pass < 2; pass++) {
+            for (String document : documents) {
+                StandardTokenizer tokenizer = new StandardTokenizer(Version.LUCENE_30, new StringReader(document));
+                tokenizer.setMaxTokenLength(20);
+                TokenStream stream = new SnowballFilter(new LowerCaseFilter(tokenizer), "English");
+                TermAttribute term = stream.addAttribute(TermAttribute.class);
+                List<String> expected = new ArrayList<String>();
+                while (stream.incrementToken()) {
+                    expected.add(term.term());
+                }
+                List<String> actual = new ArrayList<String>();
+                lucene.addWords(document, actual);
+                assertEquals(actual, expected, document);
+            }
+        }
+    }
+
+    static final String[] vocabulary = {
+            "the", "quick", "brown", "fox", "jumps", "jumping", "jumped", "over", "lazy", "dogs",
+            "money", "casino", "online", "pharmaceuticals", "buying", "nobody", "owns", "water",
+            "rabbits", "fences", "running", "classifier", "classification", "messages", "training",
+            "probabilities", "categories", "features", "documents", "counting", "weighted",
+            "meeting", "tomorrow", "attached", "report", "please", "review", "thanks", "regards"
+    };
+
+    static List<String> buildDocuments(Random random, int count) {
+        List<String> documents = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder document = new StringBuilder();
+            for (int word = 0; word < 200; word++) {
+                String w = vocabulary[random.nextInt(vocabulary.length)];
+                document.append(random.nextInt(10) == 0 ? w.toUpperCase() : w);
+                document.append(random.nextInt(8) == 0 ? ". " : " ");
+            }
+            documents.add(document.toString());
+        }
+        return documents;
+    }
+
+    static long time(WordLister lister, List<String> documents, int passes) {
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (String document : documents) {
+                lister.getUniqueWords(document);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Times the stemming listers against each other. It asserts on wall-clock time, so it's in
+     * the "benchmark" group rather than the ones the build runs; run it with
+     * -Dtest.groups=benchmark.
+     */
+    @Test(groups = {"benchmark"})
+    public void testStemmingSpeed() {
+        List<String> documents = buildDocuments(new Random(7), 500);
+        WordLister stemming = new StemmingWordLister();
+        WordLister lucene = new LuceneStemmingWordLister();
+        WordLister caching = new CachingStemmingWordLister();
+        for (WordLister lister : new WordLister[]{stemming, lucene, caching}) {
+            time(lister, documents, 3);
+        }
+        long stemmingTime = time(stemming, documents, 5);
+        long luceneTime = time(lucene, documents, 5);
+        long cachingTime = time(caching, documents, 5);
+        int items = documents.size() * 5;
+        System.out.printf("StemmingWordLister: %.3fms/item%n", stemmingTime / 1000000.0 / items);
+        System.out.printf("LuceneStemmingWordLister: %.3fms/item%n", luceneTime / 1000000.0 / items);
+        System.out.printf("CachingStemmingWordLister: %.3fms/item%n", cachingTime / 1000000.0 / items);
+        // parity, with room for timing noise
+        assertTrue(luceneTime < stemmingTime + stemmingTime / 4, "Lucene stemming is too slow");
+    }
+}
@@ -0,0 +1,201 @@
+package com.enigmastation.resolvers.impl;
+
+import com.enigmastation.resolvers.Resolver;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ResolverTest {
+    @Test(groups = {"fulltest", "normal"})
+    public void testConcurrentResolver() {
+        ConcurrentResolver resolver = new ConcurrentResolver(4);
+        assertEquals(resolver.getId("rabbit"), -1);
+        int rabbit = resolver.getIdForKey("rabbit");
+        assertEquals(rabbit, 1);
+        assertEquals(resolver.getIdForKey("rabbit"), rabbit);
+        assertEquals(resolver.addKey("rabbit"), rabbit);
+        assertEquals(resolver.getKey(rabbit), "rabbit");
+        assertNull(resolver.getKey(0));
+        assertNull(resolver.getKey(1000));
+
+        assertTrue(resolver.addKey("fox", 100));
+        assertFalse(resolver.addKey("hare", 100));
+        assertFalse(resolver.addKey("fox", 101));
+        assertEquals(resolver.getKey(100), "fox");
+        // new ids carry on past an id that was asked for
+        assertEquals(resolver.getIdForKey("hare"), 101);
+
+        for (int i = 0; i < 10000; i++) {
+            resolver.getIdForKey("word" + i);
+        }
+        assertEquals(resolver.size(), 10003);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(resolver.getKey(resolver.getId("word" + i)), "word" + i);
+        }
+    }
+
+    /**
+     * Several threads resolve the same keys, in different orders, at the same time. Every
+     * key has to end up with one id, and the ids have to be 1 through the number of keys.
+     */
+    @Test(groups = {"fulltest", "normal"})
+    public void testConcurrentResolverUnderContention() throws Exception {
+        final int threads = 8;
+        final int keys = 50000;
+        final ConcurrentResolver resolver = new ConcurrentResolver();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 7919;
+                results.add(executor.submit(new Callable<int[]>() {
+                    public int[] call() throws Exception {
+                        start.await();
+                        int[] ids = new int[keys];
+                        for (int i = 0; i < keys; i++) {
+                            int key = (i + offset) % keys;
+                            ids[key] = resolver.getIdForKey("key" + key);
+                            assertEquals(resolver.getKey(ids[key]), "key" + key);
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            start.countDown();
+            int[] expected = results.get(0).get();
+            for (Future<int[]> result : results) {
+                int[] ids = result.get();
+                for (int i = 0; i < keys; i++) {
+                    assertEquals(ids[i], expected[i], "key" + i);
+                }
+            }
+            boolean[] seen = new boolean[keys + 1];
+            for (int id : expected) {
+                assertTrue(id >= 1 && id <= keys, String.valueOf(id));
+                assertFalse(seen[id], String.valueOf(id));
+                seen[id] = true;
+            }
+            assertEquals(resolver.size(), keys);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static File createDirectory() throws IOException {
+        File directory = File.createTempFile("resolver", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        return directory;
+    }
+
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testMappedResolver() throws IOException {
+        File directory = createDirectory();
+        try {
+            int keys = 5000;
+            MappedResolver resolver = new MappedResolver(directory);
+            assertEquals(resolver.getId("rabbit"), -1);
+            // enough keys to grow every file, and a few that aren't ASCII
+            for (int i = 1; i <= keys; i++) {
+                assertEquals(resolver.getIdForKey("feature" + i), i);
+            }
+            int cafe = resolver.getIdForKey("caf\u00e9");
+            assertEquals(resolver.getIdForKey("caf\u00e9"), cafe);
+            assertEquals(resolver.getKey(cafe), "caf\u00e9");
+            assertFalse(resolver.addKey("hare", 10));
+            assertTrue(resolver.addKey("hare", keys + 2));
+            assertNull(resolver.getKey(keys + 3));
+
+            // a read-only resolver shares the files, and picks up keys the writer adds later
+            MappedResolver reader = new MappedResolver(directory, true);
+            assertEquals(reader.getId("feature17"), 17);
+            assertEquals(reader.getKey(keys + 2), "hare");
+            int fox = resolver.getIdForKey("fox");
+            assertEquals(reader.getId("fox"), fox);
+            assertEquals(reader.getKey(fox), "fox");
+            try {
+                reader.getIdForKey("badger");
+                fail("a read-only resolver added a key");
+            } catch (IllegalStateException expected) {
+            }
+            reader.close();
+            resolver.close();
+
+            // the ids survive reopening
+            resolver = new MappedResolver(directory);
+            assertEquals(resolver.size(), keys + 3);
+            for (int i = 1; i <= keys; i++) {
+                assertEquals(resolver.getId("feature" + i), i);
+                assertEquals(resolver.getKey(i), "feature" + i);
+            }
+            assertEquals(resolver.getId("fox"), fox);
+            assertEquals(resolver.getIdForKey("badger"), keys + 4);
+            resolver.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static long measure(Resolver resolver, String[] keys) {
+        long before = usedMemory();
+        for (String key : keys) {
+            resolver.getIdForKey(key);
+        }
+        long used = usedMemory() - before;
+        assertEquals(resolver.getKey(resolver.getId(keys[keys.length - 1])), keys[keys.length - 1]);
+        return used;
+    }
+
+    /**
+     * Compares the memory each resolver needs for the same keys, not counting the keys themselves.
+     * It asks for five million keys, or -Dresolver.keys, but uses one for every 400 bytes of heap
+     * at most: about a million under the build's 384m. Run it with -Dtest.groups=benchmark and
+     * -Dtest.heap=2100m for the full five million.
+     */
+    @Test(groups = {"benchmark"})
+    public void testResolverMemory() {
+        int requested = Integer.getInteger("resolver.keys", 5000000);
+        int count = (int) Math.min(requested, Runtime.getRuntime().maxMemory() / 400);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "feature" + i;
+        }
+        long memoryResolver = measure(new MemoryResolver(), keys);
+        long concurrentResolver = measure(new ConcurrentResolver(), keys);
+        System.out.printf("%d keys (%d requested): MemoryResolver %.1f bytes/key, ConcurrentResolver %.1f bytes/key%n",
+                count, requested, (double) memoryResolver / count, (double) concurrentResolver / count);
+        assertTrue(concurrentResolver < memoryResolver);
+    }
+}
@@ -4,6 +4,8 @@ import com.enigmastation.dao.CategoryDAO;
 import com.enigmastation.dao.model.Category;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+
 /**
  * User: joeo
  * Date: 11/23/10
@@ -13,4 +15,40 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public class CategoryDAOImpl extends Db4OBaseDAO<Category> implements CategoryDAO {
+    /**
+     * Reads, adds to and stores the category's count with the container's
+     * lock held, so no other increment can come between the read and the store.
+     */
+    public void increment(Category template, long delta) {
+        lock.lock();
+        try {
+            Category probe = new Category();
+            probe.setCategory(template.getCategory());
+            Category c = read(probe);
+            if (c == null) {
+                c = probe;
+                c.setCount(delta);
+            } else {
+                c.setCount(c.getCount() + delta);
+            }
+            write(c);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds the container's lock across every increment, rather than taking it
+     * once per category.
+     */
+    public void incrementAll(Collection<Category> deltas) {
+        lock.lock();
+        try {
+            for (Category delta : deltas) {
+                increment(delta, delta.getCount());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 }
@@ -4,6 +4,7 @@ import com.db4o.Db4oEmbedded;
 import com.db4o.ObjectContainer;
 import com.db4o.ObjectSet;
 import com.enigmastation.dao.BaseEntity;
+import com.enigmastation.dao.Visitor;
 import com.enigmastation.dao.impl.AbstractBaseDAO;
 
 import java.util.ArrayList;
@@ -91,6 +92,17 @@ public class Db4OBaseDAO<T extends BaseEntity> extends AbstractBaseDAO<T> {
         return new ArrayList<T>(existingObjects);
     }
 
+    /**
+     * Walks the query's ObjectSet directly. The set holds the ids of the
+     * matches, and each object is only instantiated as the visitor reaches it.
+     */
+    public void forEach(T template, Visitor<T> visitor) {
+        ObjectSet<T> existingObjects = db.queryByExample(template);
+        while (existingObjects.hasNext()) {
+            visitor.visit(existingObjects.next());
+        }
+    }
+
     public List<T> takeMultiple(T template) {
         return null;
     }
@@ -1,9 +1,18 @@
 package com.enigmastation.dao.db4o;
 
+import com.db4o.ObjectSet;
+import com.db4o.query.Constraint;
+import com.db4o.query.Query;
 import com.enigmastation.dao.FeatureDAO;
 import com.enigmastation.dao.model.Feature;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * User: joeo
  * Date: 11/23/10
@@ -13,4 +22,75 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public class FeatureDAOImpl extends Db4OBaseDAO<Feature> implements FeatureDAO {
+    /**
+     * Reads, adds to and stores the pair's count with the container's lock
+     * held, so no other increment can come between the read and the store.
+     */
+    public void increment(Feature template, long delta) {
+        lock.lock();
+        try {
+            Feature probe = new Feature();
+            probe.setFeature(template.getFeature());
+            probe.setCategory(template.getCategory());
+            Feature f = read(probe);
+            if (f == null) {
+                f = probe;
+                f.setCount(delta);
+            } else {
+                f.setCount(f.getCount() + delta);
+            }
+            write(f);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds the container's lock across every increment, rather than taking it
+     * once per pair.
+     */
+    public void incrementAll(Collection<Feature> deltas) {
+        lock.lock();
+        try {
+            for (Feature delta : deltas) {
+                increment(delta, delta.getCount());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, long[]> readCounts(Set<String> features, List<String> categories) {
+        Map<String, long[]> counts = new HashMap<String, long[]>();
+        if (features.size() == 0 || categories.size() == 0) {
+            return counts;
+        }
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < categories.size(); i++) {
+            index.put(categories.get(i), i);
+        }
+
+        // one SODA query for the whole document: feature = f1 or feature = f2 or ...
+        Query query = db.query();
+        query.constrain(Feature.class);
+        Query featureField = query.descend("feature");
+        Constraint constraint = null;
+        for (String feature : features) {
+            Constraint c = featureField.constrain(feature);
+            constraint = constraint == null ? c : constraint.or(c);
+        }
+        ObjectSet<Feature> results = query.execute();
+        for (Feature f : results) {
+            Integer category = index.get(f.getCategory());
+            if (category == null || f.getCount() == null) {
+                continue;
+            }
+            long[] row = counts.get(f.getFeature());
+            if (row == null) {
+                counts.put(f.getFeature(), row = new long[categories.size()]);
+            }
+            row[category] += f.getCount();
+        }
+        return counts;
+    }
 }
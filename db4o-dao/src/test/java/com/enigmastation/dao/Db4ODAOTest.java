@@ -1,7 +1,14 @@
 package com.enigmastation.dao;
 
+import com.enigmastation.dao.db4o.FeatureDAOImpl;
+import com.enigmastation.dao.model.Feature;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
 public class Db4ODAOTest {
     @Test
     public void testOperations() {
@@ -14,4 +21,63 @@ public class Db4ODAOTest {
         System.out.println("e: "+e);
         System.out.flush();
     }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testConcurrentIncrement() throws InterruptedException {
+        final FeatureDAOImpl dao = new FeatureDAOImpl();
+        final Feature template = new Feature();
+        template.setFeature("increment");
+        template.setCategory("test");
+        Feature old;
+        while ((old = dao.take(template)) != null) {
+            System.out.println("removing " + old);
+        }
+        final int increments = 100;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < increments; i++) {
+                        dao.increment(template, 1);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(dao.readMultiple(template).size(), 1);
+        assertEquals(dao.read(template).getCount().longValue(), 4L * increments);
+        dao.take(template);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testForEach() {
+        FeatureDAOImpl dao = new FeatureDAOImpl();
+        Feature template = new Feature();
+        template.setCategory("foreach");
+        while (dao.take(template) != null) {
+        }
+        for (int i = 0; i < 5; i++) {
+            Feature f = new Feature();
+            f.setFeature("feature" + i);
+            f.setCategory("foreach");
+            dao.increment(f, i + 1);
+        }
+        final long[] seen = new long[2];
+        dao.forEach(template, new Visitor<Feature>() {
+            public void visit(Feature f) {
+                seen[0]++;
+                seen[1] += f.getCount();
+            }
+        });
+        assertEquals(seen[0], 5L);
+        assertEquals(seen[1], 15L);
+        while (dao.take(template) != null) {
+        }
+    }
 }
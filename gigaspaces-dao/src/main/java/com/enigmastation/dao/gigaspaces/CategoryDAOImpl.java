@@ -4,6 +4,8 @@ import com.enigmastation.dao.CategoryDAO;
 import com.enigmastation.dao.model.Category;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+
 /**
  * User: joeo
  * Date: 11/28/10
@@ -13,4 +15,31 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public class CategoryDAOImpl extends GigaspacesBaseDAO<Category> implements CategoryDAO {
+    private final Object incrementLock = new Object();
+
+    /**
+     * Takes the category's entry out of the space, adds to it and writes it back, with
+     * a lock held so increments made through this DAO can't interleave. Increments
+     * from another JVM sharing the space aren't covered by the lock.
+     */
+    public void increment(Category template, long delta) {
+        synchronized (incrementLock) {
+            Category probe = new Category();
+            probe.setCategory(template.getCategory());
+            Category c = take(probe);
+            if (c == null) {
+                c = probe;
+                c.setCount(delta);
+            } else {
+                c.setCount(c.getCount() + delta);
+            }
+            write(c);
+        }
+    }
+
+    public void incrementAll(Collection<Category> deltas) {
+        for (Category delta : deltas) {
+            increment(delta, delta.getCount());
+        }
+    }
 }
@@ -4,6 +4,12 @@ import com.enigmastation.dao.FeatureDAO;
 import com.enigmastation.dao.model.Feature;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * User: joeo
  * Date: 11/28/10
@@ -13,4 +19,56 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public class FeatureDAOImpl extends GigaspacesBaseDAO<Feature> implements FeatureDAO {
+    private final Object incrementLock = new Object();
+
+    /**
+     * Takes the pair's entry out of the space, adds to it and writes it back, with
+     * a lock held so increments made through this DAO can't interleave. Increments
+     * from another JVM sharing the space aren't covered by the lock.
+     */
+    public void increment(Feature template, long delta) {
+        synchronized (incrementLock) {
+            Feature probe = new Feature();
+            probe.setFeature(template.getFeature());
+            probe.setCategory(template.getCategory());
+            Feature f = take(probe);
+            if (f == null) {
+                f = probe;
+                f.setCount(delta);
+            } else {
+                f.setCount(f.getCount() + delta);
+            }
+            write(f);
+        }
+    }
+
+    public void incrementAll(Collection<Feature> deltas) {
+        for (Feature delta : deltas) {
+            increment(delta, delta.getCount());
+        }
+    }
+
+    public Map<String, long[]> readCounts(Set<String> features, List<String> categories) {
+        Map<String, long[]> counts = new HashMap<String, long[]>();
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < categories.size(); i++) {
+            index.put(categories.get(i), i);
+        }
+        for (String feature : features) {
+            Feature template = new Feature();
+            template.setFeature(feature);
+            for (Feature f : readMultiple(template)) {
+                Integer category = index.get(f.getCategory());
+                if (category == null || f.getCount() == null) {
+                    continue;
+                }
+                long[] row = counts.get(feature);
+                if (row == null) {
+                    counts.put(feature, row = new long[categories.size()]);
+                }
+                row[category] += f.getCount();
+            }
+        }
+        return counts;
+    }
 }
@@ -11,5 +11,16 @@ public interface DAO<T extends BaseEntity> {
 
     List<T> readMultiple(T template);
     List<T> takeMultiple(T template);
+
+    /**
+     * Passes every entity matching the template to the visitor. Unlike
+     * readMultiple(), an implementation can hand the entities over as it reads
+     * them, without holding them all at once, so this is the way to walk a
+     * whole model.
+     *
+     * @param template the template to match
+     * @param visitor  the visitor to call for each match
+     */
+    void forEach(T template, Visitor<T> visitor);
     T build();
 }
@@ -0,0 +1,10 @@
+package com.enigmastation.dao;
+
+/**
+ * Receives the entities a DAO finds, one at a time, as forEach() reads them.
+ *
+ * @param <T> the entity type
+ */
+public interface Visitor<T> {
+    void visit(T object);
+}
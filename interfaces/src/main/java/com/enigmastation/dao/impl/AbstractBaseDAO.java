@@ -2,6 +2,7 @@ package com.enigmastation.dao.impl;
 
 import com.enigmastation.dao.BaseEntity;
 import com.enigmastation.dao.DAO;
+import com.enigmastation.dao.Visitor;
 
 import java.lang.reflect.ParameterizedType;
 
@@ -20,6 +21,16 @@ public abstract class AbstractBaseDAO<T extends BaseEntity> implements DAO<T> {
         return read(template);
     }
 
+    /**
+     * Visits the results of readMultiple(), so a DAO that can't stream still
+     * supports forEach(); it holds every match at once, as readMultiple() does.
+     */
+    public void forEach(T template, Visitor<T> visitor) {
+        for (T object : readMultiple(template)) {
+            visitor.visit(object);
+        }
+    }
+
     @SuppressWarnings({"unchecked"})
     protected AbstractBaseDAO() {
         persistentClass = (Class<T>) ((ParameterizedType) getClass()
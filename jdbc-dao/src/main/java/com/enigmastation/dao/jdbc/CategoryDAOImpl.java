@@ -1,19 +1,22 @@
 package com.enigmastation.dao.jdbc;
 
 import com.enigmastation.dao.CategoryDAO;
-import com.enigmastation.dao.impl.AbstractBaseDAO;
+import com.enigmastation.dao.Visitor;
 import com.enigmastation.dao.model.Category;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
 import javax.annotation.PostConstruct;
-import javax.sql.DataSource;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -25,15 +28,68 @@ import java.util.UUID;
  * Copyright
  */
 @Repository
-public class CategoryDAOImpl extends AbstractBaseDAO<Category> implements CategoryDAO {
-    @Autowired
-    DataSource dataSource;
+public class CategoryDAOImpl extends JdbcBaseDAO<Category> implements CategoryDAO {
+    /**
+     * The select readMultiple() runs for each combination of fields set in the
+     * template: bit 0 for the id and bit 1 for the category, matched exactly.
+     */
+    static final String[] SELECTS = FeatureDAOImpl.selects("select id, createtime, updatetime, category, _count from category",
+            "id", "category");
 
-    JdbcTemplate template;
+    /**
+     * Increments to categories, each named by its category.
+     */
+    abstract static class CategoryIncrements extends Increments<Category> {
+        CategoryIncrements(String update, String insert) {
+            super(update, insert);
+        }
+
+        @Override
+        protected Object key(Category delta) {
+            return delta.getCategory();
+        }
+
+        @Override
+        protected long count(Category delta) {
+            return delta.getCount();
+        }
+
+        @Override
+        protected Category copy(Category delta, long count) {
+            Category category = new Category();
+            category.setCategory(delta.getCategory());
+            category.setCount(count);
+            return category;
+        }
+    }
+
+    /**
+     * How incrementAll() adds to and inserts categories, found by the unique
+     * index on category.
+     */
+    static final Increments<Category> INCREMENTS = new CategoryIncrements(
+            "update category set updatetime=?, _count=_count+? where category=?",
+            "insert into category (createtime, updatetime, category, _count, id) values (?,?,?,?,?)") {
+        @Override
+        protected void setUpdate(PreparedStatement ps, Category delta, long now) throws SQLException {
+            ps.setLong(1, now);
+            ps.setLong(2, delta.getCount());
+            ps.setString(3, delta.getCategory());
+        }
+
+        @Override
+        protected void setInsert(PreparedStatement ps, Category delta, long now) throws SQLException {
+            ps.setLong(1, now);
+            ps.setLong(2, now);
+            ps.setString(3, delta.getCategory());
+            ps.setLong(4, delta.getCount());
+            ps.setString(5, UUID.randomUUID().toString());
+        }
+    };
 
     @PostConstruct
     public void init() {
-        template = new JdbcTemplate(dataSource);
+        super.init();
         try {
             template.execute("create table category (id varchar primary key, createtime bigint, updatetime bigint, category varchar, _count bigint)");
         } catch (Exception ignored) {
@@ -78,6 +134,38 @@ public class CategoryDAOImpl extends AbstractBaseDAO<Category> implements Catego
         return object;
     }
 
+    /**
+     * Adds to a category's count with a single update, inserting the category
+     * if there's no row yet. As with FeatureDAOImpl.increment(), a concurrent
+     * insert trips the unique index on category and the update is run again.
+     */
+    public void increment(Category template, long delta) {
+        if (update(template, delta) == 0) {
+            try {
+                long now = System.nanoTime();
+                this.template.update("insert into category (createtime, updatetime, category, _count, id) " +
+                        "values (?,?,?,?,?)", now, now, template.getCategory(), delta,
+                        UUID.randomUUID().toString());
+            } catch (DataIntegrityViolationException e) {
+                // another thread inserted the category between our update and our insert
+                update(template, delta);
+            }
+        }
+    }
+
+    private int update(Category template, long delta) {
+        return this.template.update("update category set updatetime=?, _count=_count+? where category=?",
+                System.nanoTime(), delta, template.getCategory());
+    }
+
+    /**
+     * Sends the increments to the database batchSize at a time, the same way
+     * FeatureDAOImpl.incrementAll() does.
+     */
+    public void incrementAll(Collection<Category> deltas) {
+        incrementAll(deltas, INCREMENTS);
+    }
+
     @Transactional
     public Category take(Category template) {
         Category category = read(template);
@@ -88,25 +176,51 @@ public class CategoryDAOImpl extends AbstractBaseDAO<Category> implements Catego
     @Transactional
     public List<Category> readMultiple(Category template) {
         final List<Category> list = new ArrayList<Category>();
-        this.template.query("select id, createtime, updatetime, category, _count from category "+
-                "where id like ? and category like ?",
-                new Object[]{
-                        template.getId() == null ? "%" : template.getId(),
-                        template.getCategory() == null ? "%" : template.getCategory(),
-                }, new RowCallbackHandler() {
-                    public void processRow(ResultSet resultSet) throws SQLException {
-                        Category category = new Category();
-                        category.setId(resultSet.getString(1));
-                        category.setCreateTime(resultSet.getLong(2));
-                        category.setLastUpdateTime(resultSet.getLong(3));
-                        category.setCategory(resultSet.getString(4));
-                        category.setCount(resultSet.getLong(5));
-                        list.add(category);
-                    }
-                });
+        query(this.template, template, new Visitor<Category>() {
+            public void visit(Category category) {
+                list.add(category);
+            }
+        });
         return list;
     }
 
+    /**
+     * Streams the matching rows to the visitor, fetchSize at a time, the same
+     * way FeatureDAOImpl.forEach() does.
+     */
+    public void forEach(final Category template, final Visitor<Category> visitor) {
+        transactions.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                query(streaming, template, visitor);
+            }
+        });
+    }
+
+    private void query(JdbcTemplate jdbc, Category template, final Visitor<Category> visitor) {
+        List<Object> args = new ArrayList<Object>(2);
+        int mask = 0;
+        if (template.getId() != null) {
+            mask |= 1;
+            args.add(template.getId());
+        }
+        if (template.getCategory() != null) {
+            mask |= 2;
+            args.add(template.getCategory());
+        }
+        jdbc.query(SELECTS[mask], args.toArray(), new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                Category category = new Category();
+                category.setId(resultSet.getString(1));
+                category.setCreateTime(resultSet.getLong(2));
+                category.setLastUpdateTime(resultSet.getLong(3));
+                category.setCategory(resultSet.getString(4));
+                category.setCount(resultSet.getLong(5));
+                visitor.visit(category);
+            }
+        });
+    }
+
     @Transactional
     public List<Category> takeMultiple(Category template) {
         List<Category> categories = readMultiple(template);
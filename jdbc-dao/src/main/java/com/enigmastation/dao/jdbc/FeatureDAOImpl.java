@@ -1,20 +1,27 @@
 package com.enigmastation.dao.jdbc;
 
 import com.enigmastation.dao.FeatureDAO;
-import com.enigmastation.dao.impl.AbstractBaseDAO;
+import com.enigmastation.dao.Visitor;
 import com.enigmastation.dao.model.Feature;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.enigmastation.dao.model.Pair;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
 import javax.annotation.PostConstruct;
-import javax.sql.DataSource;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -25,15 +32,99 @@ import java.util.UUID;
  * Copyright
  */
 @Repository
-public class FeatureDAOImpl extends AbstractBaseDAO<Feature> implements FeatureDAO {
-    @Autowired
-    DataSource dataSource;
+public class FeatureDAOImpl extends JdbcBaseDAO<Feature> implements FeatureDAO {
+    /**
+     * The largest number of features bound into a single IN list by readCounts().
+     */
+    static final int IN_LIST_SIZE = 500;
 
-    JdbcTemplate template;
+    /**
+     * The select readMultiple() runs for each combination of fields set in the
+     * template: bit 0 for the id, bit 1 for the feature and bit 2 for the category.
+     * Every field that's set is matched exactly, so a template with a feature
+     * and a category is a single probe of the feat_category index, and names
+     * holding '%' or '_' only match themselves.
+     */
+    static final String[] SELECTS = selects("select id, createtime, updatetime, feature, category, _count from feature",
+            "id", "feature", "category");
+
+    /**
+     * Builds a select for every combination of the columns, each column matched
+     * with "=?" when its bit is set in the index.
+     */
+    static String[] selects(String select, String... columns) {
+        String[] selects = new String[1 << columns.length];
+        for (int mask = 0; mask < selects.length; mask++) {
+            StringBuilder sql = new StringBuilder(select);
+            String separator = " where ";
+            for (int i = 0; i < columns.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    sql.append(separator).append(columns[i]).append("=?");
+                    separator = " and ";
+                }
+            }
+            selects[mask] = sql.toString();
+        }
+        return selects;
+    }
+
+    /**
+     * Increments to feature/category pairs, each named by its pair.
+     */
+    abstract static class FeatureIncrements extends Increments<Feature> {
+        FeatureIncrements(String update, String insert) {
+            super(update, insert);
+        }
+
+        @Override
+        protected Object key(Feature delta) {
+            return new Pair<String, String>(delta.getFeature(), delta.getCategory());
+        }
+
+        @Override
+        protected long count(Feature delta) {
+            return delta.getCount();
+        }
+
+        @Override
+        protected Feature copy(Feature delta, long count) {
+            Feature f = new Feature();
+            f.setFeature(delta.getFeature());
+            f.setCategory(delta.getCategory());
+            f.setCount(count);
+            return f;
+        }
+    }
+
+    /**
+     * How incrementAll() adds to and inserts pairs, found by the unique index
+     * on (feature, category).
+     */
+    static final Increments<Feature> INCREMENTS = new FeatureIncrements(
+            "update feature set updatetime=?, _count=_count+? where feature=? and category=?",
+            "insert into feature (createtime, updatetime, feature, category, _count, id) values (?,?,?,?,?,?)") {
+        @Override
+        protected void setUpdate(PreparedStatement ps, Feature delta, long now) throws SQLException {
+            ps.setLong(1, now);
+            ps.setLong(2, delta.getCount());
+            ps.setString(3, delta.getFeature());
+            ps.setString(4, delta.getCategory());
+        }
+
+        @Override
+        protected void setInsert(PreparedStatement ps, Feature delta, long now) throws SQLException {
+            ps.setLong(1, now);
+            ps.setLong(2, now);
+            ps.setString(3, delta.getFeature());
+            ps.setString(4, delta.getCategory());
+            ps.setLong(5, delta.getCount());
+            ps.setString(6, UUID.randomUUID().toString());
+        }
+    };
 
     @PostConstruct
     public void init() {
-        template = new JdbcTemplate(dataSource);
+        super.init();
         try {
             template.execute("create table feature (id varchar primary key, createtime bigint, updatetime bigint, feature varchar, category varchar, _count bigint)");
         } catch (Exception ignored) {
@@ -85,6 +176,44 @@ public class FeatureDAOImpl extends AbstractBaseDAO<Feature> implements FeatureD
         return object;
     }
 
+    /**
+     * Adds to a pair's count with a single update, so the database does the
+     * arithmetic under its own row lock. If there's no row to update, the pair
+     * is inserted; if another thread inserts it first, the unique index on
+     * (feature, category) rejects the second insert and the update is run again.
+     * <p/>
+     * This isn't @Transactional on purpose: each statement commits on its own,
+     * which keeps the row locked no longer than one update, and a failed insert
+     * doesn't poison a surrounding transaction before the retry.
+     */
+    public void increment(Feature template, long delta) {
+        if (update(template, delta) == 0) {
+            try {
+                long now = System.nanoTime();
+                this.template.update("insert into feature (createtime, updatetime, feature, category, _count, id) " +
+                        "values (?,?,?,?,?,?)", now, now, template.getFeature(), template.getCategory(), delta,
+                        UUID.randomUUID().toString());
+            } catch (DataIntegrityViolationException e) {
+                // another thread inserted the pair between our update and our insert
+                update(template, delta);
+            }
+        }
+    }
+
+    private int update(Feature template, long delta) {
+        return this.template.update("update feature set updatetime=?, _count=_count+? where feature=? and category=?",
+                System.nanoTime(), delta, template.getFeature(), template.getCategory());
+    }
+
+    /**
+     * Sends the increments to the database batchSize at a time, as
+     * JdbcBaseDAO.incrementAll() describes: a batched update, then a batched
+     * insert for the pairs it didn't find.
+     */
+    public void incrementAll(Collection<Feature> deltas) {
+        incrementAll(deltas, INCREMENTS);
+    }
+
     @Transactional
     public Feature take(Feature template) {
         Feature feature = read(template);
@@ -95,27 +224,106 @@ public class FeatureDAOImpl extends AbstractBaseDAO<Feature> implements FeatureD
     @Transactional
     public List<Feature> readMultiple(Feature template) {
         final List<Feature> list = new ArrayList<Feature>();
-        this.template.query("select id, createtime, updatetime, feature, category, _count from feature where id like ? " +
-                " and feature like ? and category like ?",
-                new Object[]{
-                        template.getId() == null ? "%" : template.getId(),
-                        template.getFeature() == null ? "%" : template.getFeature(),
-                        template.getCategory() == null ? "%" : template.getCategory(),
-                }, new RowCallbackHandler() {
-                    public void processRow(ResultSet resultSet) throws SQLException {
-                        Feature f = new Feature();
-                        f.setId(resultSet.getString(1));
-                        f.setCreateTime(resultSet.getLong(2));
-                        f.setLastUpdateTime(resultSet.getLong(3));
-                        f.setFeature(resultSet.getString(4));
-                        f.setCategory(resultSet.getString(5));
-                        f.setCount(resultSet.getLong(6));
-                        list.add(f);
-                    }
-                });
+        query(this.template, template, new Visitor<Feature>() {
+            public void visit(Feature f) {
+                list.add(f);
+            }
+        });
         return list;
     }
 
+    /**
+     * Streams the matching rows to the visitor as the driver fetches them,
+     * fetchSize at a time, without collecting them. The query runs in a
+     * transaction, since some drivers only honour the fetch size inside one.
+     */
+    public void forEach(final Feature template, final Visitor<Feature> visitor) {
+        transactions.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                query(streaming, template, visitor);
+            }
+        });
+    }
+
+    private void query(JdbcTemplate jdbc, Feature template, final Visitor<Feature> visitor) {
+        List<Object> args = new ArrayList<Object>(3);
+        int mask = 0;
+        if (template.getId() != null) {
+            mask |= 1;
+            args.add(template.getId());
+        }
+        if (template.getFeature() != null) {
+            mask |= 2;
+            args.add(template.getFeature());
+        }
+        if (template.getCategory() != null) {
+            mask |= 4;
+            args.add(template.getCategory());
+        }
+        jdbc.query(SELECTS[mask], args.toArray(), new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                Feature f = new Feature();
+                f.setId(resultSet.getString(1));
+                f.setCreateTime(resultSet.getLong(2));
+                f.setLastUpdateTime(resultSet.getLong(3));
+                f.setFeature(resultSet.getString(4));
+                f.setCategory(resultSet.getString(5));
+                f.setCount(resultSet.getLong(6));
+                visitor.visit(f);
+            }
+        });
+    }
+
+    @Transactional
+    public Map<String, long[]> readCounts(Set<String> features, List<String> categories) {
+        final Map<String, long[]> counts = new HashMap<String, long[]>();
+        if (features.size() == 0 || categories.size() == 0) {
+            return counts;
+        }
+        final Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < categories.size(); i++) {
+            index.put(categories.get(i), i);
+        }
+        final int width = categories.size();
+        RowCallbackHandler handler = new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                Integer category = index.get(resultSet.getString(2));
+                if (category == null) {
+                    return;
+                }
+                String feature = resultSet.getString(1);
+                long[] row = counts.get(feature);
+                if (row == null) {
+                    counts.put(feature, row = new long[width]);
+                }
+                row[category] += resultSet.getLong(3);
+            }
+        };
+
+        List<String> batch = new ArrayList<String>(Math.min(features.size(), IN_LIST_SIZE));
+        for (String feature : features) {
+            batch.add(feature);
+            if (batch.size() == IN_LIST_SIZE) {
+                queryCounts(batch, handler);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            queryCounts(batch, handler);
+        }
+        return counts;
+    }
+
+    private void queryCounts(List<String> features, RowCallbackHandler handler) {
+        StringBuilder sql = new StringBuilder("select feature, category, _count from feature where feature in (");
+        for (int i = 0; i < features.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+        this.template.query(sql.toString(), features.toArray(), handler);
+    }
+
     @Transactional
     public List<Feature> takeMultiple(Feature template) {
         List<Feature> features = readMultiple(template);
@@ -0,0 +1,224 @@
+package com.enigmastation.dao.jdbc;
+
+import com.enigmastation.dao.BaseEntity;
+import com.enigmastation.dao.impl.AbstractBaseDAO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the JDBC DAOs have in common: the DataSource and the templates over it,
+ * the batch and fetch sizes, and the batched increments behind incrementAll().
+ */
+public abstract class JdbcBaseDAO<T extends BaseEntity> extends AbstractBaseDAO<T> {
+    @Autowired
+    DataSource dataSource;
+
+    JdbcTemplate template;
+
+    TransactionTemplate transactions;
+
+    /**
+     * The number of rows incrementAll() sends to the database in each batch.
+     */
+    int batchSize = 1000;
+
+    /**
+     * The number of rows forEach() asks the driver to fetch at a time.
+     */
+    int fetchSize = 1000;
+
+    /**
+     * The template forEach() queries through, which fetches fetchSize rows at a time.
+     */
+    JdbcTemplate streaming;
+
+    /**
+     * Builds the templates. Subclasses call this from their own @PostConstruct
+     * init() before they create their tables.
+     */
+    public void init() {
+        template = new JdbcTemplate(dataSource);
+        streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(fetchSize);
+        transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        if (streaming != null) {
+            streaming.setFetchSize(fetchSize);
+        }
+    }
+
+    /**
+     * Adds to one row's count, inserting the row if it isn't there.
+     */
+    public abstract void increment(T template, long delta);
+
+    /**
+     * How incrementAll() writes one kind of row: an update that adds to the
+     * count of a row that's there, and an insert for the rows it didn't find.
+     */
+    protected abstract static class Increments<T> {
+        final String update;
+        final String insert;
+
+        protected Increments(String update, String insert) {
+            this.update = update;
+            this.insert = insert;
+        }
+
+        /**
+         * @return what names the delta's row, so increments to the same row can be added together
+         */
+        protected abstract Object key(T delta);
+
+        protected abstract long count(T delta);
+
+        /**
+         * @return a new increment to the same row as the delta, with the count given
+         */
+        protected abstract T copy(T delta, long count);
+
+        protected abstract void setUpdate(PreparedStatement ps, T delta, long now) throws SQLException;
+
+        protected abstract void setInsert(PreparedStatement ps, T delta, long now) throws SQLException;
+
+        /**
+         * Called in the batch's transaction with the increments the update
+         * didn't find, before they're inserted. The increments are
+         * incrementAll()'s own copies, so they can be changed here.
+         */
+        protected void prepare(List<T> missing) {
+        }
+    }
+
+    /**
+     * Sends the increments to the database batchSize at a time, each batch in
+     * a transaction of its own: one batched update, then one batched insert for
+     * the rows the update didn't find. Increments to the same row are added
+     * together first, so a batch never inserts a row twice.
+     * <p/>
+     * A driver may not report how many rows each statement in a batch updated.
+     * If it doesn't, there's no telling which rows are new, so the batch is
+     * rolled back and its rows are incremented one at a time instead. If
+     * another writer inserts one of a batch's new rows first, the batch is
+     * rolled back and run again.
+     */
+    protected void incrementAll(Collection<T> deltas, Increments<T> increments) {
+        Collection<T> merged = merge(deltas, increments);
+        List<T> batch = new ArrayList<T>(Math.min(merged.size(), batchSize));
+        for (T delta : merged) {
+            batch.add(delta);
+            if (batch.size() == batchSize) {
+                incrementBatch(batch, increments);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            incrementBatch(batch, increments);
+        }
+    }
+
+    /**
+     * Adds together the increments to each row, leaving the deltas as they were.
+     *
+     * @return one increment per row, in the order the rows were first seen
+     */
+    static <T> Collection<T> merge(Collection<T> deltas, Increments<T> increments) {
+        Map<Object, T> merged = new LinkedHashMap<Object, T>();
+        for (T delta : deltas) {
+            Object key = increments.key(delta);
+            T sum = merged.get(key);
+            merged.put(key, increments.copy(delta, increments.count(delta) + (sum == null ? 0 : increments.count(sum))));
+        }
+        return merged.values();
+    }
+
+    private void incrementBatch(final List<T> batch, final Increments<T> increments) {
+        final boolean[] uncounted = {false};
+        TransactionCallbackWithoutResult callback = new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                final long now = System.nanoTime();
+                int[] updates = template.batchUpdate(increments.update, new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        increments.setUpdate(ps, batch.get(i), now);
+                    }
+
+                    public int getBatchSize() {
+                        return batch.size();
+                    }
+                });
+                final List<T> missing = new ArrayList<T>();
+                for (int i = 0; i < updates.length; i++) {
+                    if (updates[i] < 0) {
+                        // SUCCESS_NO_INFO or EXECUTE_FAILED: undo the batch and go row by row
+                        status.setRollbackOnly();
+                        uncounted[0] = true;
+                        return;
+                    }
+                    if (updates[i] == 0) {
+                        missing.add(batch.get(i));
+                    }
+                }
+                if (missing.size() == 0) {
+                    return;
+                }
+                increments.prepare(missing);
+                template.batchUpdate(increments.insert, new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        increments.setInsert(ps, missing.get(i), now);
+                    }
+
+                    public int getBatchSize() {
+                        return missing.size();
+                    }
+                });
+            }
+        };
+        try {
+            transactions.execute(callback);
+        } catch (DataIntegrityViolationException e) {
+            // another writer inserted one of our new rows first; the batch was rolled back, so run it again
+            uncounted[0] = false;
+            transactions.execute(callback);
+        }
+        if (uncounted[0]) {
+            for (T delta : batch) {
+                increment(delta, increments.count(delta));
+            }
+        }
+    }
+}
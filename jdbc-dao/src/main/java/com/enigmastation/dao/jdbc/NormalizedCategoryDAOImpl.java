@@ -0,0 +1,195 @@
+package com.enigmastation.dao.jdbc;
+
+import com.enigmastation.dao.CategoryDAO;
+import com.enigmastation.dao.Visitor;
+import com.enigmastation.dao.model.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A CategoryDAO over the normalized schema described in NormalizedSchema. A
+ * category's id is its integer key, as a String.
+ * <p/>
+ * This isn't a @Repository, so it doesn't clash with CategoryDAOImpl when the
+ * package is scanned; declare it as a bean to use the normalized schema, and
+ * run NormalizedSchemaMigrator once to copy an existing model into it.
+ */
+public class NormalizedCategoryDAOImpl extends JdbcBaseDAO<Category> implements CategoryDAO {
+    /**
+     * The tables and id counters this DAO shares with the other normalized DAO.
+     * Declare a NormalizedSchema bean to share them; without one, init() makes its own.
+     */
+    @Autowired(required = false)
+    NormalizedSchema schema;
+
+    static final String[] SELECTS = FeatureDAOImpl.selects("select id, category, _count from categories",
+            "id", "category");
+
+    static final String INCREMENT = "update categories set _count=_count+? where category=?";
+
+    /**
+     * How incrementAll() adds to categories. A category the update doesn't
+     * find is added to the table with a count of zero, and then the same
+     * update is run for it again.
+     */
+    final Increments<Category> increments = new CategoryDAOImpl.CategoryIncrements(INCREMENT, INCREMENT) {
+        @Override
+        protected void setUpdate(PreparedStatement ps, Category delta, long now) throws SQLException {
+            ps.setLong(1, delta.getCount());
+            ps.setString(2, delta.getCategory());
+        }
+
+        @Override
+        protected void prepare(List<Category> missing) {
+            for (Category category : missing) {
+                schema.categoryId(category.getCategory());
+            }
+        }
+
+        @Override
+        protected void setInsert(PreparedStatement ps, Category delta, long now) throws SQLException {
+            setUpdate(ps, delta, now);
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        super.init();
+        if (schema == null) {
+            schema = new NormalizedSchema(dataSource);
+        }
+        schema.create();
+    }
+
+    public void setSchema(NormalizedSchema schema) {
+        this.schema = schema;
+    }
+
+    @Transactional
+    public Category read(Category template) {
+        List<Category> categories = readMultiple(template);
+        if (categories.size() > 0) {
+            return categories.get(0);
+        }
+        return null;
+    }
+
+    @Transactional
+    public Category write(Category object) {
+        int id = schema.categoryId(object.getCategory());
+        object.setId(String.valueOf(id));
+        schema.template.update("update categories set _count=? where id=?", object.getCount(), id);
+        return object;
+    }
+
+    /**
+     * Adds to the category's count with a single update. A new category is
+     * added to the table first, with a count of zero, and then updated by id.
+     */
+    public void increment(Category template, long delta) {
+        if (schema.template.update(INCREMENT, delta, template.getCategory()) == 0) {
+            schema.template.update("update categories set _count=_count+? where id=?",
+                    delta, schema.categoryId(template.getCategory()));
+        }
+    }
+
+    /**
+     * Sends the increments to the database batchSize at a time, as
+     * JdbcBaseDAO.incrementAll() describes, adding the categories that
+     * aren't in the table yet.
+     */
+    public void incrementAll(Collection<Category> deltas) {
+        incrementAll(deltas, increments);
+    }
+
+    @Transactional
+    public Category take(Category template) {
+        Category category = read(template);
+        if (category != null) {
+            remove(category);
+        }
+        return category;
+    }
+
+    @Transactional
+    public List<Category> readMultiple(Category template) {
+        final List<Category> list = new ArrayList<Category>();
+        query(schema.template, template, new Visitor<Category>() {
+            public void visit(Category category) {
+                list.add(category);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Streams the matching rows to the visitor, fetchSize at a time, the same
+     * way FeatureDAOImpl.forEach() does.
+     */
+    public void forEach(final Category template, final Visitor<Category> visitor) {
+        transactions.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                query(streaming, template, visitor);
+            }
+        });
+    }
+
+    private void query(JdbcTemplate jdbc, Category template, final Visitor<Category> visitor) {
+        List<Object> args = new ArrayList<Object>(2);
+        int mask = 0;
+        if (template.getId() != null) {
+            int id = NormalizedSchema.parseId(template.getId());
+            if (id == -1) {
+                return;
+            }
+            mask |= 1;
+            args.add(id);
+        }
+        if (template.getCategory() != null) {
+            mask |= 2;
+            args.add(template.getCategory());
+        }
+        jdbc.query(SELECTS[mask], args.toArray(), new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                Category category = new Category();
+                category.setId(resultSet.getString(1));
+                category.setCategory(resultSet.getString(2));
+                category.setCount(resultSet.getLong(3));
+                visitor.visit(category);
+            }
+        });
+    }
+
+    @Transactional
+    public List<Category> takeMultiple(Category template) {
+        List<Category> categories = readMultiple(template);
+        for (Category category : categories) {
+            remove(category);
+        }
+        return categories;
+    }
+
+    /**
+     * Removes a category and the feature counts filed under it, which couldn't
+     * be read without the category's name anyway, and would otherwise be picked
+     * up by a new category given the same id.
+     */
+    private void remove(Category category) {
+        int id = Integer.parseInt(category.getId());
+        schema.template.update("delete from feature_counts where category_id=?", id);
+        schema.template.update("delete from categories where id=?", id);
+    }
+}
@@ -0,0 +1,292 @@
+package com.enigmastation.dao.jdbc;
+
+import com.enigmastation.dao.FeatureDAO;
+import com.enigmastation.dao.Visitor;
+import com.enigmastation.dao.model.Feature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A FeatureDAO over the normalized schema described in NormalizedSchema. A
+ * feature's id is its pair of integer keys, written "featureId:categoryId".
+ * <p/>
+ * Like NormalizedCategoryDAOImpl, this isn't a @Repository; declare it as a
+ * bean alongside that class to use the normalized schema.
+ */
+public class NormalizedFeatureDAOImpl extends JdbcBaseDAO<Feature> implements FeatureDAO {
+    /**
+     * The tables and id counters this DAO shares with the other normalized DAO.
+     * Declare a NormalizedSchema bean to share them; without one, init() makes its own.
+     */
+    @Autowired(required = false)
+    NormalizedSchema schema;
+
+    /**
+     * The select readMultiple() runs for each combination of fields set in the
+     * template: bits 0 and 1 for the two halves of the id, bit 2 for the feature
+     * and bit 3 for the category.
+     */
+    static final String[] SELECTS = FeatureDAOImpl.selects("select f.feature_id, f.category_id, n.feature, c.category, f._count " +
+            "from feature_counts f join feature_names n on n.id=f.feature_id join categories c on c.id=f.category_id",
+            "f.feature_id", "f.category_id", "n.feature", "c.category");
+
+    static final String INCREMENT = "update feature_counts set _count=_count+? " +
+            "where feature_id=(select id from feature_names where feature=?) " +
+            "and category_id=(select id from categories where category=?)";
+
+    /**
+     * How incrementAll() adds to pairs, by name, and inserts them, by id. The
+     * ids of the new pairs are looked up, and any new names added, before
+     * they're inserted.
+     */
+    final Increments<Feature> increments = new FeatureDAOImpl.FeatureIncrements(INCREMENT,
+            "insert into feature_counts (feature_id, category_id, _count) values (?,?,?)") {
+        @Override
+        protected void setUpdate(PreparedStatement ps, Feature delta, long now) throws SQLException {
+            ps.setLong(1, delta.getCount());
+            ps.setString(2, delta.getFeature());
+            ps.setString(3, delta.getCategory());
+        }
+
+        @Override
+        protected void prepare(List<Feature> missing) {
+            for (Feature f : missing) {
+                f.setId(schema.featureId(f.getFeature()) + ":" + schema.categoryId(f.getCategory()));
+            }
+        }
+
+        @Override
+        protected void setInsert(PreparedStatement ps, Feature delta, long now) throws SQLException {
+            String id = delta.getId();
+            int colon = id.indexOf(':');
+            ps.setInt(1, Integer.parseInt(id.substring(0, colon)));
+            ps.setInt(2, Integer.parseInt(id.substring(colon + 1)));
+            ps.setLong(3, delta.getCount());
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        super.init();
+        if (schema == null) {
+            schema = new NormalizedSchema(dataSource);
+        }
+        schema.create();
+    }
+
+    public void setSchema(NormalizedSchema schema) {
+        this.schema = schema;
+    }
+
+    @Transactional
+    public Feature read(Feature template) {
+        List<Feature> features = readMultiple(template);
+        if (features.size() > 0) {
+            return features.get(0);
+        }
+        return null;
+    }
+
+    @Transactional
+    public Feature write(Feature object) {
+        int featureId = schema.featureId(object.getFeature());
+        int categoryId = schema.categoryId(object.getCategory());
+        object.setId(featureId + ":" + categoryId);
+        if (schema.template.update("update feature_counts set _count=? where feature_id=? and category_id=?",
+                object.getCount(), featureId, categoryId) == 0) {
+            schema.template.update("insert into feature_counts (feature_id, category_id, _count) values (?,?,?)",
+                    featureId, categoryId, object.getCount());
+        }
+        return object;
+    }
+
+    /**
+     * Adds to a pair's count with a single update, which finds the pair's ids
+     * by name. A new pair has its names added to the dictionaries and its row
+     * inserted; if another thread inserts the row first, the primary key
+     * rejects the second insert and the update is run again. Like
+     * FeatureDAOImpl.increment(), this isn't @Transactional, so the rejected
+     * insert doesn't end a surrounding transaction.
+     */
+    public void increment(Feature template, long delta) {
+        if (schema.template.update(INCREMENT, delta, template.getFeature(), template.getCategory()) == 0) {
+            insert(template, delta);
+        }
+    }
+
+    private void insert(Feature template, long delta) {
+        int featureId = schema.featureId(template.getFeature());
+        int categoryId = schema.categoryId(template.getCategory());
+        try {
+            schema.template.update("insert into feature_counts (feature_id, category_id, _count) values (?,?,?)",
+                    featureId, categoryId, delta);
+        } catch (DataIntegrityViolationException e) {
+            // another thread inserted the pair between our update and our insert
+            schema.template.update("update feature_counts set _count=_count+? where feature_id=? and category_id=?",
+                    delta, featureId, categoryId);
+        }
+    }
+
+    /**
+     * Sends the increments to the database batchSize at a time, as
+     * JdbcBaseDAO.incrementAll() describes: a batched update by name, then a
+     * batched insert for the pairs it didn't find.
+     */
+    public void incrementAll(Collection<Feature> deltas) {
+        incrementAll(deltas, increments);
+    }
+
+    @Transactional
+    public Feature take(Feature template) {
+        Feature feature = read(template);
+        if (feature != null) {
+            remove(feature);
+        }
+        return feature;
+    }
+
+    @Transactional
+    public List<Feature> readMultiple(Feature template) {
+        final List<Feature> list = new ArrayList<Feature>();
+        query(schema.template, template, new Visitor<Feature>() {
+            public void visit(Feature f) {
+                list.add(f);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Streams the matching rows to the visitor as the driver fetches them,
+     * fetchSize at a time, inside a transaction as FeatureDAOImpl.forEach() does.
+     */
+    public void forEach(final Feature template, final Visitor<Feature> visitor) {
+        transactions.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                query(streaming, template, visitor);
+            }
+        });
+    }
+
+    private void query(JdbcTemplate jdbc, Feature template, final Visitor<Feature> visitor) {
+        List<Object> args = new ArrayList<Object>(4);
+        int mask = 0;
+        if (template.getId() != null) {
+            String id = template.getId();
+            int colon = id.indexOf(':');
+            int featureId = colon == -1 ? -1 : NormalizedSchema.parseId(id.substring(0, colon));
+            int categoryId = colon == -1 ? -1 : NormalizedSchema.parseId(id.substring(colon + 1));
+            if (featureId == -1 || categoryId == -1) {
+                return;
+            }
+            mask |= 3;
+            args.add(featureId);
+            args.add(categoryId);
+        }
+        if (template.getFeature() != null) {
+            mask |= 4;
+            args.add(template.getFeature());
+        }
+        if (template.getCategory() != null) {
+            mask |= 8;
+            args.add(template.getCategory());
+        }
+        jdbc.query(SELECTS[mask], args.toArray(), new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                Feature f = new Feature();
+                f.setId(resultSet.getInt(1) + ":" + resultSet.getInt(2));
+                f.setFeature(resultSet.getString(3));
+                f.setCategory(resultSet.getString(4));
+                f.setCount(resultSet.getLong(5));
+                visitor.visit(f);
+            }
+        });
+    }
+
+    @Transactional
+    public Map<String, long[]> readCounts(Set<String> features, List<String> categories) {
+        final Map<String, long[]> counts = new HashMap<String, long[]>();
+        if (features.size() == 0 || categories.size() == 0) {
+            return counts;
+        }
+        final Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < categories.size(); i++) {
+            index.put(categories.get(i), i);
+        }
+        final int width = categories.size();
+        RowCallbackHandler handler = new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                Integer category = index.get(resultSet.getString(2));
+                if (category == null) {
+                    return;
+                }
+                String feature = resultSet.getString(1);
+                long[] row = counts.get(feature);
+                if (row == null) {
+                    counts.put(feature, row = new long[width]);
+                }
+                row[category] += resultSet.getLong(3);
+            }
+        };
+
+        List<String> batch = new ArrayList<String>(Math.min(features.size(), FeatureDAOImpl.IN_LIST_SIZE));
+        for (String feature : features) {
+            batch.add(feature);
+            if (batch.size() == FeatureDAOImpl.IN_LIST_SIZE) {
+                queryCounts(batch, handler);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            queryCounts(batch, handler);
+        }
+        return counts;
+    }
+
+    private void queryCounts(List<String> features, RowCallbackHandler handler) {
+        StringBuilder sql = new StringBuilder("select n.feature, c.category, f._count from feature_counts f " +
+                "join feature_names n on n.id=f.feature_id join categories c on c.id=f.category_id where n.feature in (");
+        for (int i = 0; i < features.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+        schema.template.query(sql.toString(), features.toArray(), handler);
+    }
+
+    @Transactional
+    public List<Feature> takeMultiple(Feature template) {
+        List<Feature> features = readMultiple(template);
+        for (Feature f : features) {
+            remove(f);
+        }
+        return features;
+    }
+
+    /**
+     * Removes a pair's count. The feature's name stays in the dictionary, so
+     * its id is the same if it's trained again.
+     */
+    private void remove(Feature f) {
+        String id = f.getId();
+        int colon = id.indexOf(':');
+        schema.template.update("delete from feature_counts where feature_id=? and category_id=?",
+                Integer.parseInt(id.substring(0, colon)), Integer.parseInt(id.substring(colon + 1)));
+    }
+}
@@ -0,0 +1,180 @@
+package com.enigmastation.dao.jdbc;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The tables behind the normalized DAOs, and the integer ids they hand out.
+ * <p/>
+ * Category names and feature names are each stored once, in the categories and
+ * feature_names tables, under an integer id. The feature counts are kept in
+ * feature_counts, keyed by the pair of ids, so a row is three numbers and its
+ * primary key is two ints rather than a 36 character UUID. There are no create
+ * or update times.
+ * <p/>
+ * A new name takes the next id from a counter kept for its table, which starts
+ * after the largest id in use. Declare one of these as a bean and the normalized
+ * DAOs and the migrator share it, and with it the counters, so writers in the
+ * same JVM don't collide; a DAO without one makes its own.
+ * <p/>
+ * The name is inserted on the caller's connection, in the caller's transaction
+ * if there is one, so it's rolled back with the rest of a failed batch and
+ * needs no second connection. If another writer took the id or added the name
+ * first, the counter catches up with the table. Outside a transaction the name
+ * is then looked up again, or inserted under the next id; inside one the
+ * exception is passed on for the caller to roll back and retry, since some
+ * databases (PostgreSQL, for one) won't carry on after a failed statement.
+ */
+public class NormalizedSchema {
+    final JdbcTemplate template;
+
+    private final Dictionary categories = new Dictionary("categories", "category",
+            "insert into categories (id, category, _count) values (?,?,0)");
+    private final Dictionary featureNames = new Dictionary("feature_names", "feature",
+            "insert into feature_names (id, feature) values (?,?)");
+
+    public NormalizedSchema(DataSource dataSource) {
+        template = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Creates the tables if they aren't there already.
+     */
+    void create() {
+        try {
+            template.execute("create table categories (id integer primary key, category varchar, _count bigint)");
+        } catch (Exception ignored) {
+        }
+        try {
+            template.execute("create unique index categories_category on categories(category)");
+        } catch (Exception ignored) {
+        }
+        try {
+            template.execute("create table feature_names (id integer primary key, feature varchar)");
+        } catch (Exception ignored) {
+        }
+        try {
+            template.execute("create unique index feature_names_feature on feature_names(feature)");
+        } catch (Exception ignored) {
+        }
+        try {
+            template.execute("create table feature_counts (feature_id integer, category_id integer, _count bigint, " +
+                    "primary key (feature_id, category_id))");
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Moves each counter past the largest id in its table, after something
+     * other than this schema has added names.
+     */
+    void catchUp() {
+        categories.catchUp();
+        featureNames.catchUp();
+    }
+
+    /**
+     * @param category the category name
+     * @return the category's id, adding the category with a count of zero if it's new
+     */
+    int categoryId(String category) {
+        return categories.id(category);
+    }
+
+    /**
+     * @param feature the feature name
+     * @return the feature's id, adding it to the dictionary if it's new
+     */
+    int featureId(String feature) {
+        return featureNames.id(feature);
+    }
+
+    /**
+     * @return the id of the name, or -1 if it isn't in the table
+     */
+    int lookup(String table, String column, String name) {
+        final int[] id = {-1};
+        template.query("select id from " + table + " where " + column + "=?", new Object[]{name},
+                new RowCallbackHandler() {
+                    public void processRow(ResultSet resultSet) throws SQLException {
+                        id[0] = resultSet.getInt(1);
+                    }
+                });
+        return id[0];
+    }
+
+    /**
+     * Reads an id written by a normalized DAO.
+     *
+     * @return the id, or -1 if it isn't a number
+     */
+    static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One of the two name tables, and the largest id handed out from it.
+     */
+    private class Dictionary {
+        final String table;
+        final String column;
+        final String insert;
+
+        /**
+         * The largest id handed out or seen in the table, or 0 if it has to be read from the table.
+         */
+        private int last;
+
+        Dictionary(String table, String column, String insert) {
+            this.table = table;
+            this.column = column;
+            this.insert = insert;
+        }
+
+        int id(String name) {
+            int id = lookup(table, column, name);
+            return id != -1 ? id : add(name);
+        }
+
+        private int add(String name) {
+            while (true) {
+                int id = next();
+                try {
+                    template.update(insert, id, name);
+                    return id;
+                } catch (DataIntegrityViolationException e) {
+                    // another writer took the id or added the name
+                    catchUp();
+                    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                        throw e;
+                    }
+                    id = lookup(table, column, name);
+                    if (id != -1) {
+                        return id;
+                    }
+                }
+            }
+        }
+
+        private synchronized int next() {
+            if (last == 0) {
+                last = template.queryForInt("select max(id) from " + table);
+            }
+            return ++last;
+        }
+
+        synchronized void catchUp() {
+            last = Math.max(last, template.queryForInt("select max(id) from " + table));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.enigmastation.dao.jdbc;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Copies a model from the feature and category tables used by FeatureDAOImpl
+ * and CategoryDAOImpl into the normalized tables used by NormalizedFeatureDAOImpl
+ * and NormalizedCategoryDAOImpl.
+ * <p/>
+ * Category and feature names are numbered from 1 in Java, a batch at a time,
+ * and the counts are then copied with a single insert ... select that joins
+ * the old feature rows to the new dictionaries. The old tables are left as
+ * they were; drop them once the normalized DAOs are in use. Run the migration
+ * before the normalized DAOs start adding names of their own.
+ */
+public class NormalizedSchemaMigrator {
+    private final NormalizedSchema schema;
+    private final int batchSize;
+
+    public NormalizedSchemaMigrator(DataSource dataSource) {
+        this(dataSource, 1000);
+    }
+
+    /**
+     * @param dataSource the database holding the old tables
+     * @param batchSize  the number of dictionary rows to insert per batch
+     */
+    public NormalizedSchemaMigrator(DataSource dataSource, int batchSize) {
+        this(new NormalizedSchema(dataSource), batchSize);
+    }
+
+    /**
+     * @param schema    the schema the normalized DAOs use, so its counters carry on after the migrated ids
+     * @param batchSize the number of dictionary rows to insert per batch
+     */
+    public NormalizedSchemaMigrator(NormalizedSchema schema, int batchSize) {
+        this.schema = schema;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates the normalized tables and fills them from the old ones.
+     *
+     * @return the number of feature counts copied
+     * @throws IllegalStateException if the normalized tables already hold data
+     */
+    public int migrate() {
+        schema.create();
+        final JdbcTemplate template = schema.template;
+        if (template.queryForInt("select count(*) from categories") > 0
+                || template.queryForInt("select count(*) from feature_names") > 0) {
+            throw new IllegalStateException("the normalized tables already hold data");
+        }
+
+        // every category with a count, and every category named by a feature, in name order
+        final Map<String, Long> categories = new TreeMap<String, Long>();
+        template.query("select category, _count from category", new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                categories.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+        });
+        template.query("select distinct category from feature", new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                if (!categories.containsKey(resultSet.getString(1))) {
+                    categories.put(resultSet.getString(1), 0L);
+                }
+            }
+        });
+        List<Object[]> rows = new ArrayList<Object[]>(categories.size());
+        for (Map.Entry<String, Long> category : categories.entrySet()) {
+            rows.add(new Object[]{rows.size() + 1, category.getKey(), category.getValue()});
+        }
+        if (rows.size() > 0) {
+            insert(template, "insert into categories (id, category, _count) values (?,?,?)", rows);
+        }
+
+        final List<Object[]> batch = new ArrayList<Object[]>(batchSize);
+        final int[] lastId = {0};
+        template.query("select distinct feature from feature", new RowCallbackHandler() {
+            public void processRow(ResultSet resultSet) throws SQLException {
+                batch.add(new Object[]{++lastId[0], resultSet.getString(1)});
+                if (batch.size() == batchSize) {
+                    insert(template, "insert into feature_names (id, feature) values (?,?)", batch);
+                    batch.clear();
+                }
+            }
+        });
+        if (batch.size() > 0) {
+            insert(template, "insert into feature_names (id, feature) values (?,?)", batch);
+        }
+
+        // the ids above didn't come from the schema's counters
+        schema.catchUp();
+
+        return template.update("insert into feature_counts (feature_id, category_id, _count) " +
+                "select n.id, c.id, f._count from feature f " +
+                "join feature_names n on n.feature=f.feature join categories c on c.category=f.category");
+    }
+
+    private static void insert(JdbcTemplate template, String sql, final List<Object[]> rows) {
+        template.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Object[] row = rows.get(i);
+                for (int column = 0; column < row.length; column++) {
+                    ps.setObject(column + 1, row[column]);
+                }
+            }
+
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+}
@@ -0,0 +1,209 @@
+package com.enigmastation.dao;
+
+import com.enigmastation.dao.jdbc.NormalizedCategoryDAOImpl;
+import com.enigmastation.dao.jdbc.NormalizedFeatureDAOImpl;
+import com.enigmastation.dao.jdbc.NormalizedSchema;
+import com.enigmastation.dao.jdbc.NormalizedSchemaMigrator;
+import com.enigmastation.dao.model.Category;
+import com.enigmastation.dao.model.Feature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+@ContextConfiguration(locations = "/jdbc-context.xml")
+public class NormalizedDAOTest extends AbstractTestNGSpringContextTests {
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    FeatureDAO featureDAO;
+
+    @Autowired
+    CategoryDAO categoryDAO;
+
+    NormalizedSchema schema;
+    NormalizedFeatureDAOImpl normalizedFeatureDAO;
+    NormalizedCategoryDAOImpl normalizedCategoryDAO;
+
+    @BeforeMethod(alwaysRun = true)
+    public void clearDB() {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        for (String table : new String[]{"feature_counts", "feature_names", "categories"}) {
+            try {
+                template.execute("drop table " + table);
+            } catch (Exception ignored) {
+            }
+        }
+        featureDAO.takeMultiple(new Feature());
+        categoryDAO.takeMultiple(new Category());
+
+        schema = new NormalizedSchema(dataSource);
+        normalizedFeatureDAO = new NormalizedFeatureDAOImpl();
+        normalizedFeatureDAO.setDataSource(dataSource);
+        normalizedFeatureDAO.setSchema(schema);
+        normalizedFeatureDAO.init();
+        normalizedCategoryDAO = new NormalizedCategoryDAOImpl();
+        normalizedCategoryDAO.setDataSource(dataSource);
+        normalizedCategoryDAO.setSchema(schema);
+        normalizedCategoryDAO.init();
+    }
+
+    static Feature feature(String feature, String category) {
+        Feature f = new Feature();
+        f.setFeature(feature);
+        f.setCategory(category);
+        return f;
+    }
+
+    static Category category(String category) {
+        Category c = new Category();
+        c.setCategory(category);
+        return c;
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testNormalizedDAOs() {
+        Feature f = feature("foo", "bar");
+        f.setCount(3L);
+        normalizedFeatureDAO.write(f);
+        normalizedFeatureDAO.increment(feature("foo", "bar"), 2);
+        normalizedFeatureDAO.increment(feature("foo", "baz"), 1);
+        normalizedFeatureDAO.increment(feature("quux", "bar"), 4);
+
+        assertEquals(normalizedFeatureDAO.read(feature("foo", "bar")).getCount().longValue(), 5L);
+        Feature t = new Feature();
+        t.setId(f.getId());
+        assertEquals(normalizedFeatureDAO.read(t).getFeature(), "foo");
+        assertEquals(normalizedFeatureDAO.readMultiple(feature("foo", null)).size(), 2);
+        assertEquals(normalizedFeatureDAO.readMultiple(feature(null, "bar")).size(), 2);
+
+        Map<String, long[]> counts = normalizedFeatureDAO.readCounts(new HashSet<String>(Arrays.asList("foo", "quux")),
+                Arrays.asList("bar", "baz"));
+        assertEquals(counts.get("foo")[0], 5L);
+        assertEquals(counts.get("foo")[1], 1L);
+        assertEquals(counts.get("quux")[0], 4L);
+        assertEquals(counts.get("quux")[1], 0L);
+
+        normalizedCategoryDAO.increment(category("bar"), 2);
+        normalizedCategoryDAO.increment(category("bar"), 1);
+        assertEquals(normalizedCategoryDAO.read(category("bar")).getCount().longValue(), 3L);
+
+        normalizedFeatureDAO.take(feature("foo", "baz"));
+        assertNull(normalizedFeatureDAO.read(feature("foo", "baz")));
+        normalizedCategoryDAO.take(category("bar"));
+        assertEquals(normalizedFeatureDAO.readMultiple(new Feature()).size(), 0);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testIncrementAll() {
+        normalizedFeatureDAO.setBatchSize(3);
+        normalizedFeatureDAO.increment(feature("feature0", "bar"), 5);
+        List<Feature> deltas = new ArrayList<Feature>();
+        for (int i = 0; i < 10; i++) {
+            Feature f = feature("feature" + i, "bar");
+            f.setCount((long) i + 1);
+            deltas.add(f);
+        }
+        normalizedFeatureDAO.incrementAll(deltas);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(normalizedFeatureDAO.read(feature("feature" + i, "bar")).getCount().longValue(),
+                    i + 1 + (i == 0 ? 5 : 0));
+        }
+        Category c = category("bar");
+        c.setCount(7L);
+        normalizedCategoryDAO.incrementAll(Arrays.asList(c, c));
+        assertEquals(normalizedCategoryDAO.read(category("bar")).getCount().longValue(), 14L);
+    }
+
+    @Test(groups = {"fulltest", "normal"})
+    public void testMigration() {
+        featureDAO.increment(feature("foo", "bar"), 3);
+        featureDAO.increment(feature("foo", "baz"), 1);
+        featureDAO.increment(feature("50%_off", "baz"), 2);
+        categoryDAO.increment(category("bar"), 2);
+        categoryDAO.increment(category("baz"), 1);
+
+        assertEquals(new NormalizedSchemaMigrator(schema, 2).migrate(), 3);
+        assertEquals(normalizedFeatureDAO.read(feature("foo", "bar")).getCount().longValue(), 3L);
+        assertEquals(normalizedFeatureDAO.read(feature("foo", "baz")).getCount().longValue(), 1L);
+        assertEquals(normalizedFeatureDAO.read(feature("50%_off", "baz")).getCount().longValue(), 2L);
+        assertEquals(normalizedCategoryDAO.read(category("bar")).getCount().longValue(), 2L);
+        assertEquals(normalizedCategoryDAO.readMultiple(new Category()).size(), 2);
+
+        // new names carry on from the migrated ids
+        normalizedFeatureDAO.increment(feature("quux", "qux"), 1);
+        assertEquals(normalizedFeatureDAO.readMultiple(new Feature()).size(), 4);
+        assertEquals(normalizedCategoryDAO.readMultiple(new Category()).size(), 3);
+    }
+
+    /**
+     * Adds the same new names through two DAOs from several threads at once. The
+     * DAOs share a schema, so every name gets a single id and no increment is
+     * lost to a collision.
+     */
+    @Test(groups = {"fulltest", "normal"})
+    public void testSharedIds() throws Exception {
+        NormalizedFeatureDAOImpl other = new NormalizedFeatureDAOImpl();
+        other.setDataSource(dataSource);
+        other.setSchema(schema);
+        other.init();
+        incrementConcurrently(normalizedFeatureDAO, other);
+    }
+
+    /**
+     * As testSharedIds(), but each DAO makes its own schema, as DAOs in two
+     * processes would, so their counters hand out the same ids and the inserts
+     * collide. The counters catch up with the table and no increment is lost.
+     */
+    @Test(groups = {"fulltest", "normal"})
+    public void testSeparateIds() throws Exception {
+        NormalizedFeatureDAOImpl other = new NormalizedFeatureDAOImpl();
+        other.setDataSource(dataSource);
+        other.init();
+        incrementConcurrently(normalizedFeatureDAO, other);
+    }
+
+    void incrementConcurrently(FeatureDAO first, FeatureDAO second) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < 4; t++) {
+                final FeatureDAO dao = t % 2 == 0 ? first : second;
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (int i = 0; i < 100; i++) {
+                            dao.increment(feature("word" + (i % 25), "cat" + (i % 2)), 1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(normalizedFeatureDAO.readMultiple(new Feature()).size(), 50);
+        for (Feature f : normalizedFeatureDAO.readMultiple(new Feature())) {
+            assertEquals(f.getCount().longValue(), 8L);
+        }
+    }
+}
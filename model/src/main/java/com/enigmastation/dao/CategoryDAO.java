@@ -2,6 +2,8 @@ package com.enigmastation.dao;
 
 import com.enigmastation.dao.model.Category;
 
+import java.util.Collection;
+
 /**
  * User: joeo
  * Date: 11/23/10
@@ -10,4 +12,21 @@ import com.enigmastation.dao.model.Category;
  * Copyright
  */
 public interface CategoryDAO extends DAO<Category> {
+    /**
+     * Adds to the count of a category in one step, creating the category if
+     * it isn't in the store yet. Unlike a read() followed by a write(), two
+     * threads incrementing the same category can't lose either update.
+     *
+     * @param template the category to increment; the count is ignored
+     * @param delta    the amount to add to the category's count
+     */
+    void increment(Category template, long delta);
+
+    /**
+     * Applies many increments at once. Each element names a category, and its
+     * count is the amount to add to that category.
+     *
+     * @param deltas the categories to increment, each carrying its delta as its count
+     */
+    void incrementAll(Collection<Category> deltas);
 }
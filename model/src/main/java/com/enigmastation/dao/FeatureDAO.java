@@ -2,6 +2,11 @@ package com.enigmastation.dao;
 
 import com.enigmastation.dao.model.Feature;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * User: joeo
  * Date: 11/23/10
@@ -10,4 +15,39 @@ import com.enigmastation.dao.model.Feature;
  * Copyright
  */
 public interface FeatureDAO extends DAO<Feature> {
+    /**
+     * Reads the counts of many features across many categories with as few
+     * trips to the store as the implementation can manage. Scoring a document
+     * needs every (feature, category) count at once, so this replaces one
+     * read() per pair.
+     *
+     * @param features   the features to look up
+     * @param categories the categories to look up; this fixes the order of the
+     *                   returned arrays
+     * @return a map of feature to an array of counts, indexed the same way as
+     *         <code>categories</code>. Features with no data in any of the
+     *         categories are left out of the map.
+     */
+    Map<String, long[]> readCounts(Set<String> features, List<String> categories);
+
+    /**
+     * Adds to the count of a feature/category pair in one step, creating the
+     * pair if it isn't in the store yet. Unlike a read() followed by a
+     * write(), two threads incrementing the same pair can't lose either
+     * update.
+     *
+     * @param template the feature and category to increment; the count is ignored
+     * @param delta    the amount to add to the pair's count
+     */
+    void increment(Feature template, long delta);
+
+    /**
+     * Applies many increments at once, as a bulk training run produces them.
+     * Each element names a feature/category pair, and its count is the amount
+     * to add to that pair. Implementations are free to send the increments to
+     * the store in batches.
+     *
+     * @param deltas the pairs to increment, each carrying its delta as its count
+     */
+    void incrementAll(Collection<Feature> deltas);
 }